@@ -0,0 +1,285 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.simplify.DouglasPeuckerLineSimplifier;
+
+/**
+ * <p>Simplifies a set of rings (e.g. the outlines of a
+ * layer of administrative areas) so that the borders that
+ * neighbouring rings share stay shared. Simplifying each
+ * ring on its own moves the two copies of a border in 
+ * different ways and leaves gaps and overlaps between them.</p>
+ *
+ * <p>We work out the topology the same way that TopoJSON
+ * does: a vertex is a junction if it's used by more than
+ * one ring and has different neighbours in them (i.e. it's
+ * where a shared border starts or ends). Cutting the rings
+ * at the junctions gives a set of arcs, with each shared
+ * border turning up once for each ring that uses it. Each
+ * distinct arc is simplified once (keeping its ends fixed)
+ * and the rings are then put back together from the
+ * simplified arcs.</p>
+ */
+class ArcTopology {
+
+	private ArcTopology() {
+	}
+
+	/**
+	 * @param rings     the rings to simplify, each one closed (last == first)
+	 * @param tolerance the Douglas-Peucker distance tolerance
+	 * @return The simplified rings, in the same order
+	 */
+	static ArrayList<Coordinate[]> simplify(ArrayList<Coordinate[]> rings, double tolerance) {
+
+		/*
+		 * Give each distinct coordinate an id, matching them
+		 * on their bits just as Points.dedupe does
+		 */
+		int total = 0;
+		for (int r = 0; r < rings.size(); r++) {
+			total += length(rings.get(r));
+		}
+
+		long[] bx = new long[total];
+		long[] by = new long[total];
+		long[] bz = new long[total];
+		int[]  id = new int[total];
+
+		ArrayList<Coordinate> points = new ArrayList<Coordinate>();
+		CoordinateTable       table  = new CoordinateTable(bx, by, bz, total);
+
+		int i = 0;
+		for (int r = 0; r < rings.size(); r++) {
+			Coordinate[] c = rings.get(r);
+			for (int p = 0; p < length(c); p++, i++) {
+				bx[i] = Double.doubleToLongBits(c[p].x);
+				by[i] = Double.doubleToLongBits(c[p].y);
+				int e = table.put(i, CoordinateTable.hash(bx[i], by[i], 0L), false);
+				if (e == -1) {
+					id[i] = points.size();
+					points.add(c[p]);
+				} else {
+					id[i] = id[e];
+				}
+			}
+		}
+
+		/*
+		 * Find the junctions: any point that turns up with
+		 * a different pair of neighbours from the first time
+		 */
+		int       n        = points.size();
+		int[]     lo       = new int[n];
+		int[]     hi       = new int[n];
+		boolean[] seen     = new boolean[n];
+		boolean[] junction = new boolean[n];
+
+		i = 0;
+		for (int r = 0; r < rings.size(); r++) {
+			int len = length(rings.get(r));
+			for (int p = 0; p < len; p++) {
+				int u    = id[i + p];
+				int prev = id[i + (p + len - 1) % len];
+				int next = id[i + (p + 1) % len];
+				int a    = Math.min(prev, next);
+				int b    = Math.max(prev, next);
+				if (! seen[u]) {
+					seen[u] = true;
+					lo[u]   = a;
+					hi[u]   = b;
+				} else if (lo[u] != a || hi[u] != b) {
+					junction[u] = true;
+				}
+			}
+			i += len;
+		}
+
+		/*
+		 * Cut each ring into arcs at its junctions (or at its
+		 * lowest point if it hasn't got any, so that two copies
+		 * of the same ring still produce the same arc), and
+		 * only keep one copy of each arc.
+		 */
+		ArrayList<int[]>               arcs   = new ArrayList<int[]>();
+		HashMap<Long, ArrayList<Integer>> byEnds = new HashMap<Long, ArrayList<Integer>>();
+		ArrayList<int[]>               refs   = new ArrayList<int[]>();
+
+		i = 0;
+		for (int r = 0; r < rings.size(); r++) {
+
+			int len = length(rings.get(r));
+			if (len < 3) {
+				refs.add(null);
+				i += len;
+				continue;
+			}
+
+			int start = -1;
+			for (int p = 0; p < len; p++) {
+				if (junction[id[i + p]]) {
+					start = p;
+					break;
+				}
+			}
+			boolean single = (start == -1);
+			if (single) {
+				start = 0;
+				for (int p = 1; p < len; p++) {
+					if (id[i + p] < id[i + start]) {
+						start = p;
+					}
+				}
+			}
+
+			ArrayList<Integer> ringArcs = new ArrayList<Integer>();
+			int from = 0;
+			for (int k = 1; k <= len; k++) {
+				int u = id[i + (start + k) % len];
+				if (k == len || (! single && junction[u])) {
+					int[] arc = new int[k - from + 1];
+					for (int j = 0; j < arc.length; j++) {
+						arc[j] = id[i + (start + from + j) % len];
+					}
+					ringArcs.add(find(arc, arcs, byEnds));
+					from = k;
+				}
+			}
+
+			int[] ref = new int[ringArcs.size()];
+			for (int k = 0; k < ref.length; k++) {
+				ref[k] = ringArcs.get(k);
+			}
+			refs.add(ref);
+			i += len;
+		}
+
+		/*
+		 * Simplify each arc once
+		 */
+		ArrayList<Coordinate[]> simplified = new ArrayList<Coordinate[]>();
+		for (int a = 0; a < arcs.size(); a++) {
+			int[]        arc = arcs.get(a);
+			Coordinate[] c   = new Coordinate[arc.length];
+			for (int j = 0; j < arc.length; j++) {
+				c[j] = points.get(arc[j]);
+			}
+			Coordinate[] s = DouglasPeuckerLineSimplifier.simplify(c, tolerance);
+			if (arc[0] == arc[arc.length - 1] && s.length < 4) {
+				// Don't let a closed arc collapse
+				s = c;
+			}
+			simplified.add(s);
+		}
+
+		/*
+		 * And rebuild the rings from the arcs
+		 */
+		ArrayList<Coordinate[]> result = new ArrayList<Coordinate[]>();
+		for (int r = 0; r < rings.size(); r++) {
+
+			int[] ref = refs.get(r);
+			if (ref == null) {
+				result.add(rings.get(r));
+				continue;
+			}
+
+			ArrayList<Coordinate> ring = new ArrayList<Coordinate>();
+			for (int k = 0; k < ref.length; k++) {
+				boolean      reversed = ref[k] < 0;
+				Coordinate[] s        = simplified.get(reversed ? ~ref[k] : ref[k]);
+				for (int j = (k == 0) ? 0 : 1; j < s.length; j++) {
+					ring.add(s[reversed ? s.length - 1 - j : j]);
+				}
+			}
+
+			if (ring.size() < 4) {
+				result.add(rings.get(r));
+			} else {
+				result.add(ring.toArray(new Coordinate[ring.size()]));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of distinct vertices in a ring
+	 * (leaving off the last one if it closes the ring)
+	 */
+	private static int length(Coordinate[] c) {
+		if (c.length > 1 && c[0].x == c[c.length - 1].x && c[0].y == c[c.length - 1].y) {
+			return c.length - 1;
+		}
+		return c.length;
+	}
+
+	/**
+	 * Returns the index of an arc that we've already seen
+	 * (or ~index if we saw it running the other way), adding
+	 * it to the list if it's new.
+	 */
+	private static int find(int[] arc, ArrayList<int[]> arcs, HashMap<Long, ArrayList<Integer>> byEnds) {
+
+		int  first = arc[0];
+		int  last  = arc[arc.length - 1];
+		Long key   = Long.valueOf(((long) Math.min(first, last) << 32) | Math.max(first, last));
+
+		ArrayList<Integer> candidates = byEnds.get(key);
+		if (candidates == null) {
+			candidates = new ArrayList<Integer>();
+			byEnds.put(key, candidates);
+		}
+
+		for (int k = 0; k < candidates.size(); k++) {
+			int   a     = candidates.get(k);
+			int[] other = arcs.get(a);
+			if (other.length != arc.length) {
+				continue;
+			}
+			boolean forward  = true;
+			boolean backward = true;
+			for (int j = 0; j < arc.length && (forward || backward); j++) {
+				forward  = forward  && other[j] == arc[j];
+				backward = backward && other[j] == arc[arc.length - 1 - j];
+			}
+			if (forward) {
+				return a;
+			} else if (backward) {
+				return ~a;
+			}
+		}
+
+		candidates.add(arcs.size());
+		arcs.add(arc);
+		return arcs.size() - 1;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+/**
+ * <p>A hash index of the values in one field of a
+ * FeatureTable so that we can find all of the rows
+ * with a given value without scanning every feature.</p>
+ *
+ * <p>Numeric fields are matched on their value rather than
+ * on how they are written, so asking for "5" will find a
+ * feature whose value is 5.0 (which is what the equivalent
+ * GeoTools filter would do).</p>
+ */
+class AttributeIndex {
+
+	private boolean numeric;
+
+	// The first row with each value, and then a chain
+	// through the rest of the rows with the same value
+	private HashMap<String, Integer> first = new HashMap<String, Integer>();
+	private int[] next;
+
+	AttributeIndex(FeatureTable t, String field) {
+
+		int n = t.size();
+		this.next = new int[n];
+		Arrays.fill(this.next, -1);
+
+		if (n == 0) {
+			return;
+		}
+
+		SimpleFeatureType   def = t.get(0).getFeatureType();
+		AttributeDescriptor ad  = def.getDescriptor(field);
+		if (ad == null) {
+			return;
+		}
+		this.numeric = Number.class.isAssignableFrom(ad.getType().getBinding());
+
+		/*
+		 * Work backwards so that each chain ends
+		 * up in the same order as the rows.
+		 */
+		for (int row = n - 1; row >= 0; row--) {
+			String k = this.key(t.get(row).getAttribute(field));
+			if (k != null) {
+				Integer head = this.first.put(k, row);
+				if (head != null) {
+					this.next[row] = head.intValue();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the rows whose value matches any of the ids,
+	 * in the order in which the ids were given (but with
+	 * each row only appearing once).
+	 * @param ids the values to look for
+	 * @return int[]
+	 */
+	int[] find(Iterable<String> ids) {
+
+		int[]           rows  = new int[16];
+		int             count = 0;
+		HashSet<String> seen  = new HashSet<String>();
+
+		for (String id : ids) {
+			/*
+			 * Each row is in exactly one chain, so a row can
+			 * only come up twice if its value is asked for 
+			 * twice (e.g. "5" and "5.0" for a numeric field)
+			 */
+			String k = this.key(id);
+			if (k == null || ! seen.add(k)) {
+				continue;
+			}
+			Integer head = this.first.get(k);
+			for (int row = (head == null) ? -1 : head.intValue(); row != -1; row = this.next[row]) {
+				if (count == rows.length) {
+					rows = Arrays.copyOf(rows, count * 2);
+				}
+				rows[count++] = row;
+			}
+		}
+		return Arrays.copyOf(rows, count);
+	}
+
+	private String key(Object v) {
+
+		if (v == null) {
+			return null;
+		} else if (! this.numeric) {
+			return v.toString();
+		}
+
+		double d;
+		if (v instanceof Number) {
+			d = ((Number) v).doubleValue();
+		} else {
+			try {
+				d = Double.parseDouble(v.toString().trim());
+			} catch (NumberFormatException e) {
+				return v.toString();
+			}
+		}
+
+		if (d == Math.rint(d) && ! Double.isInfinite(d) && Math.abs(d) < Long.MAX_VALUE) {
+			return Long.toString((long) d);
+		}
+		return Double.toString(d);
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * <p>Renders a set of layers on a separate thread so that
+ * the sketch doesn't freeze while a big shape file is being
+ * (re-)transformed after a resize or a reload. The layers are
+ * drawn into an off-screen PGraphics buffer and, once that
+ * frame is complete, it is swapped in for the one that the
+ * sketch is showing. In the meantime the sketch just keeps
+ * drawing the last finished frame, which is also what it
+ * carries on showing if one of the layers throws an
+ * exception part of the way through.</p>
+ *
+ * <p>Something like this in your sketch:</p>
+ * <pre>
+ * renderer = new BackgroundRenderer(this);
+ * renderer.addLayer(new BackgroundRenderer.Layer() {
+ *   public void draw(PApplet a, PGraphics p) {
+ *     p.stroke(0);
+ *     world.project(a, p);
+ *   }
+ * });
+ * renderer.start();
+ * ...
+ * void draw() {
+ *   background(255);
+ *   renderer.draw();
+ * }
+ * </pre>
+ *
+ * <p>Note that you should only draw a Points, Lines or
+ * Polygons object <i>either</i> through a renderer <i>or</i>
+ * directly in your sketch, since the renderer transforms
+ * the coordinates on its own thread. Layers must also use the
+ * project methods that take a PGraphics object, and the
+ * buffer is created with the Java2D renderer.</p>
+ */
+public class BackgroundRenderer implements Runnable {
+
+	public boolean DEBUG = false;
+
+	/**
+	 * Implement this to draw one (or more) of your
+	 * objects into the renderer's buffer.
+	 */
+	public interface Layer {
+		/**
+		 * @param a the sketch (needed to transform coordinates)
+		 * @param p the buffer that you should draw into
+		 */
+		public void draw(PApplet a, PGraphics p);
+	}
+
+	private PApplet applet;
+	private ArrayList<Layer> layers = new ArrayList<Layer>();
+
+	private volatile PGraphics front;
+	private PGraphics back;
+
+	private final Object lock       = new Object();
+	private final Object bufferLock = new Object();
+
+	private Thread  worker;
+	private boolean running   = false;
+	private boolean requested = false;
+	private volatile boolean rendering = false;
+
+	private int lastWidth;
+	private int lastHeight;
+
+	/**
+	 * Create a renderer for the sketch. Nothing happens
+	 * until you add some layers and call start().
+	 * @param a the sketch (usually just 'this')
+	 */
+	public BackgroundRenderer(PApplet a) {
+		this.applet = a;
+		this.applet.registerMethod("dispose", this);
+	}
+
+	/**
+	 * Add a layer to be drawn. Layers are drawn in the
+	 * order in which they were added, so the first one
+	 * ends up at the bottom.
+	 * @param l the layer to add
+	 */
+	public void addLayer(Layer l) {
+		synchronized (this.lock) {
+			this.layers.add(l);
+		}
+		this.request();
+	}
+
+	/**
+	 * Start the rendering thread and ask it
+	 * for the first frame.
+	 */
+	public void start() {
+		synchronized (this.lock) {
+			if (this.running) {
+				return;
+			}
+			this.running   = true;
+			this.requested = true;
+			this.worker    = new Thread(this, "MapThing renderer");
+			this.worker.setDaemon(true);
+			this.worker.start();
+		}
+	}
+
+	/**
+	 * Stop the rendering thread. The last
+	 * finished frame is still available to draw().
+	 */
+	public void stop() {
+		synchronized (this.lock) {
+			this.running = false;
+			this.lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Called by Processing when the sketch shuts down.
+	 */
+	public void dispose() {
+		this.stop();
+	}
+
+	/**
+	 * Ask for a new frame. Call this when something has
+	 * changed (e.g. you've loaded new data or changed a
+	 * colour scale). Several requests made while a frame is
+	 * being drawn are collapsed into a single new frame.
+	 */
+	public void request() {
+		synchronized (this.lock) {
+			this.requested = true;
+			this.lock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return true if a frame is currently being drawn in the background
+	 */
+	public boolean isRendering() {
+		return this.rendering;
+	}
+
+	/**
+	 * Draws the last finished frame into the sketch at
+	 * the top-left corner. If the sketch has been resized
+	 * since then we also ask for a new frame.
+	 */
+	public void draw() {
+		this.draw(0f, 0f);
+	}
+
+	/**
+	 * Draws the last finished frame into the sketch.
+	 * If the sketch has been resized since then we also
+	 * ask for a new frame.
+	 * @param x the x-position at which to draw the frame
+	 * @param y the y-position at which to draw the frame
+	 */
+	public void draw(float x, float y) {
+
+		if (this.applet.width != this.lastWidth || this.applet.height != this.lastHeight) {
+			this.lastWidth  = this.applet.width;
+			this.lastHeight = this.applet.height;
+			this.request();
+		}
+
+		synchronized (this.bufferLock) {
+			if (this.front != null) {
+				this.applet.image(this.front, x, y);
+			}
+		}
+	}
+
+	/**
+	 * Returns the last finished frame (or null if there
+	 * isn't one yet). Don't hang on to this as it will
+	 * be re-used for drawing a later frame.
+	 * @return PGraphics
+	 */
+	public PGraphics getFrame() {
+		return this.front;
+	}
+
+	public void run() {
+
+		while (true) {
+
+			ArrayList<Layer> toDraw;
+
+			synchronized (this.lock) {
+				while (this.running && ! this.requested) {
+					try {
+						this.lock.wait();
+					} catch (InterruptedException e) {
+						this.running = false;
+					}
+				}
+				if (! this.running) {
+					return;
+				}
+				this.requested = false;
+				toDraw = new ArrayList<Layer>(this.layers);
+			}
+
+			this.rendering = true;
+
+			int w = this.applet.width;
+			int h = this.applet.height;
+
+			if (this.back == null || this.back.width != w || this.back.height != h) {
+				this.back = this.applet.createGraphics(w, h, PConstants.JAVA2D);
+			}
+
+			long start = System.currentTimeMillis();
+
+			boolean finished = false;
+
+			this.back.beginDraw();
+			this.back.background(0, 0);
+			try {
+				for (int i = 0; i < toDraw.size(); i++) {
+					toDraw.get(i).draw(this.applet, this.back);
+				}
+				finished = true;
+			} catch (RuntimeException e) {
+				System.out.println("Problem drawing layer in the background: " + e);
+				e.printStackTrace();
+			} finally {
+				this.back.endDraw();
+			}
+
+			if (! finished) {
+				// Keep showing the last complete frame
+				this.rendering = false;
+				continue;
+			}
+
+			if (DEBUG == true)
+				System.out.println("Rendered frame of " + w + "x" + h + " in " + (System.currentTimeMillis() - start) + "ms");
+
+			/*
+			 * Swap the buffers -- we can't do this while
+			 * the sketch is in the middle of drawing the
+			 * current front buffer since we're about to
+			 * start drawing into it ourselves.
+			 */
+			synchronized (this.bufferLock) {
+				PGraphics done = this.back;
+				this.back  = this.front;
+				this.front = done;
+			}
+
+			this.rendering = false;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ * 
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+/**
+ * <p>A Node that stands in for a group of points that
+ * are too close together to draw separately at the 
+ * current scale. It sits at the (weighted) centre of 
+ * the points, and its value is the sum of their values.</p>
+ * @see com.reades.mapthing.Points#getClusters(processing.core.PApplet, float, float)
+ */
+public class Cluster extends Node {
+
+	private static final long serialVersionUID = 2971645418250716386L;
+	
+	int count;
+	
+	/**
+	 * Create a Cluster object
+	 * @param id    a (preferably) unique identifier for the cluster
+	 * @param nx    the x-position of the cluster (usually in pixels)
+	 * @param ny    the y-position of the cluster (usually in pixels)
+	 * @param count the number of points in the cluster
+	 * @param val   the total value of the points in the cluster
+	 */
+	public Cluster(int id, double nx, double ny, int count, double val) {
+		super(id, nx, ny, 0d, val);
+		this.count = count;
+	}
+	
+	/**
+	 * The number of points in the cluster
+	 * @return An int
+	 */
+	public int getCount() {
+		return this.count;
+	}
+	
+	/**
+	 * The mean value of the points in the cluster
+	 * @return A double
+	 */
+	public double getMean() {
+		return this.val / this.count;
+	}
+}
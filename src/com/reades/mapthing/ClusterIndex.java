@@ -0,0 +1,182 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+
+/**
+ * <p>Groups a set of (transformed) points into clusters
+ * at a range of scales -- from a sixteenth of the normal
+ * size up to a million times bigger, doubling each time --
+ * so that drawing a big Points layer only means drawing as 
+ * many things as can be told apart on the screen.</p>
+ *
+ * <p>Each level is built from the one above it (the next
+ * scale up) by merging anything closer together than the
+ * cluster radius, which is measured on the screen so it
+ * covers twice as much of the map at each level down. 
+ * Once a level has nothing left to merge the levels above
+ * it are simply the same points, so we share them.</p>
+ *
+ * <p>Each level also gets a PointTree, so that drawing 
+ * only has to look at the clusters that can be seen.</p>
+ */
+class ClusterIndex {
+
+	static final int MIN_ZOOM = -4;
+	static final int MAX_ZOOM = 20;
+
+	final ArrayList<Node> source;
+	final float           radius;
+
+	private Node[][]    levels;
+	private PointTree[] trees;
+	private int[]       maxCount;
+
+	/**
+	 * @param points the transformed points
+	 * @param radius the cluster radius, in pixels on the screen
+	 */
+	ClusterIndex(ArrayList<Node> points, float radius) {
+
+		this.source   = points;
+		this.radius   = radius;
+		this.levels   = new Node[MAX_ZOOM - MIN_ZOOM + 1][];
+		this.trees    = new PointTree[this.levels.length];
+		this.maxCount = new int[this.levels.length];
+
+		Node[] current = points.toArray(new Node[points.size()]);
+		int       max     = (current.length > 0) ? 1 : 0;
+		PointTree tree    = new PointTree(current);
+
+		this.levels[MAX_ZOOM - MIN_ZOOM]   = current;
+		this.trees[MAX_ZOOM - MIN_ZOOM]    = tree;
+		this.maxCount[MAX_ZOOM - MIN_ZOOM] = max;
+
+		for (int z = MAX_ZOOM - 1; z >= MIN_ZOOM; z--) {
+			Node[] next = cluster(current, radius / Math.pow(2, z));
+			if (next != current) {
+				current = next;
+				tree    = new PointTree(current);
+				max     = 0;
+				for (int i = 0; i < current.length; i++) {
+					max = Math.max(max, count(current[i]));
+				}
+			}
+			this.levels[z - MIN_ZOOM]   = current;
+			this.trees[z - MIN_ZOOM]    = tree;
+			this.maxCount[z - MIN_ZOOM] = max;
+		}
+	}
+
+	/**
+	 * @param scale the scale the map is drawn at (1 is normal size)
+	 * @return The level to use at that scale
+	 */
+	int getLevel(float scale) {
+		int z = (int) Math.floor(Math.log(scale) / Math.log(2));
+		return Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, z)) - MIN_ZOOM;
+	}
+
+	Node[] getNodes(int level) {
+		return this.levels[level];
+	}
+
+	/**
+	 * @return The nodes of a level inside (or on the edge of) a rectangle
+	 */
+	Node[] getNodes(int level, double minX, double minY, double maxX, double maxY) {
+		return this.trees[level].range(minX, minY, maxX, maxY);
+	}
+
+	int getMaxCount(int level) {
+		return this.maxCount[level];
+	}
+
+	static int count(Node n) {
+		return (n instanceof Cluster) ? ((Cluster) n).count : 1;
+	}
+
+	/**
+	 * Merges everything closer together than distance.
+	 * Each node either joins the nearest group within
+	 * distance of its first member or starts a new group.
+	 * @return The clusters, or the same array if nothing was merged
+	 */
+	private static Node[] cluster(Node[] nodes, double distance) {
+
+		int      n = nodes.length;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = nodes[i].X;
+			y[i] = nodes[i].Y;
+		}
+
+		SpatialGrid grid    = new SpatialGrid(x, y, distance);
+		int[]       group   = new int[n];
+		int[]       members = new int[n];
+		int[]       count   = new int[n];
+		double[]    sx      = new double[n];
+		double[]    sy      = new double[n];
+		double[]    value   = new double[n];
+		int         groups  = 0;
+
+		for (int i = 0; i < n; i++) {
+			int g = grid.nearest(x[i], y[i], distance);
+			if (g == -1) {
+				g = i;
+				grid.add(i);
+				groups++;
+			}
+			int w = count(nodes[i]);
+			group[i]    = g;
+			members[g] += 1;
+			count[g]   += w;
+			sx[g]      += x[i] * w;
+			sy[g]      += y[i] * w;
+			value[g]   += nodes[i].val;
+		}
+
+		if (groups == n) {
+			return nodes;
+		}
+
+		Node[] result = new Node[groups];
+		int    k      = 0;
+		for (int i = 0; i < n; i++) {
+			if (group[i] == i) {
+				if (members[i] == 1) {
+					result[k++] = nodes[i];
+				} else {
+					result[k++] = new Cluster(nodes[i].id, sx[i] / count[i], sy[i] / count[i], count[i], value[i]);
+				}
+			}
+		}
+		return result;
+	}
+}
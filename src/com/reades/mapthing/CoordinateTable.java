@@ -0,0 +1,109 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.Arrays;
+
+/**
+ * <p>A hash table of coordinates that matches them on
+ * their exact bit patterns (the same test as comparing
+ * Coordinate.toString() values, but without making a
+ * String for each one). The coordinates are held by the
+ * caller as three arrays of bits, and the table just
+ * remembers which entry holds each distinct coordinate.</p>
+ *
+ * <p>The table uses open addressing (an array of entry
+ * numbers, with collisions moving on to the next free
+ * slot) so adding a coordinate doesn't create any objects.</p>
+ */
+class CoordinateTable {
+
+	private long[] x;
+	private long[] y;
+	private long[] z;
+
+	private int[] slots;
+	private int   mask;
+
+	/**
+	 * @param x        the bits of each entry's x-coordinate
+	 * @param y        the bits of each entry's y-coordinate
+	 * @param z        the bits of each entry's z-coordinate
+	 * @param expected about how many entries will be added
+	 */
+	CoordinateTable(long[] x, long[] y, long[] z, int expected) {
+
+		this.x = x;
+		this.y = y;
+		this.z = z;
+
+		// Keep the table no more than half full
+		int capacity = 16;
+		while (capacity < 2 * expected) {
+			capacity <<= 1;
+		}
+		this.slots = new int[capacity];
+		this.mask  = capacity - 1;
+		Arrays.fill(this.slots, -1);
+	}
+
+	/**
+	 * Adds an entry to the table unless there is already
+	 * one with the same coordinate.
+	 * @param i       the entry to add
+	 * @param hash    the entry's hash (from hash())
+	 * @param replace whether a new entry should replace an existing one
+	 * @return The entry that already had this coordinate, or -1 if there wasn't one
+	 */
+	int put(int i, int hash, boolean replace) {
+		for (int s = hash & this.mask; ; s = (s + 1) & this.mask) {
+			int e = this.slots[s];
+			if (e == -1) {
+				this.slots[s] = i;
+				return -1;
+			}
+			if (this.x[e] == this.x[i] && this.y[e] == this.y[i] && this.z[e] == this.z[i]) {
+				if (replace) {
+					this.slots[s] = i;
+				}
+				return e;
+			}
+		}
+	}
+
+	/**
+	 * Mixes the bits of a coordinate together so that
+	 * nearby coordinates end up far apart in the table.
+	 */
+	static int hash(long x, long y, long z) {
+		long h = x * 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 29) ^ y) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 32) ^ z) * 0x94D049BB133111EBL;
+		h ^= h >>> 31;
+		return (int) h ^ (int) (h >>> 32);
+	}
+}
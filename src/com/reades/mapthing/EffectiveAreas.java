@@ -0,0 +1,249 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * <p>Visvalingam-Whyatt simplification. Each vertex of a
+ * line is given an 'effective area': the area of the triangle
+ * it forms with its neighbours at the point where it would be
+ * removed, if we kept removing whichever vertex made the 
+ * least difference to the shape. Simplifying to any threshold
+ * then just means keeping the vertices whose area is at
+ * least that big, so the areas are worked out once (for every
+ * line or ring in a FeatureTable) and kept, and changing the
+ * threshold is cheap.</p>
+ */
+class EffectiveAreas {
+
+	final FeatureTable table;
+
+	// The full coordinates of each part, and their areas
+	private ArrayList<Coordinate[]> parts = new ArrayList<Coordinate[]>();
+	private ArrayList<double[]>     areas = new ArrayList<double[]>();
+
+	/**
+	 * Works out the areas for every part of every feature,
+	 * in the order in which the Lines or Polygons objects 
+	 * visit them when they transform their coordinates.
+	 * @param t     the features
+	 * @param rings true for the outer rings of polygons, false for lines
+	 */
+	EffectiveAreas(FeatureTable t, boolean rings) {
+
+		this.table = t;
+
+		for (int row = 0; row < t.size(); row++) {
+			Geometry theGeom = (Geometry) t.get(row).getDefaultGeometry();
+			if (theGeom == null) {
+				continue;
+			}
+			for (int i = 0; i < theGeom.getNumGeometries(); i++) {
+				Geometry     g = theGeom.getGeometryN(i);
+				Coordinate[] c = null;
+				if (rings && g.getGeometryType().equalsIgnoreCase("polygon")) {
+					c = ((Polygon) g).getExteriorRing().getCoordinates();
+				} else if (! rings && g.getGeometryType().equalsIgnoreCase("linestring")) {
+					c = g.getCoordinates();
+				}
+				if (c != null) {
+					this.parts.add(c);
+					this.areas.add(compute(c));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns part i simplified so that only the vertices
+	 * with an effective area of at least min are left (but
+	 * never fewer than minPoints of them).
+	 */
+	Coordinate[] get(int i, double min, int minPoints) {
+		return filter(this.parts.get(i), this.areas.get(i), min, minPoints);
+	}
+
+	/**
+	 * Works out the effective area of every vertex. The
+	 * vertices are kept in a heap ordered on their area so
+	 * that we can always find the next one to remove, and
+	 * as each is removed the areas of its neighbours are
+	 * worked out again. The ends are never removed.
+	 * @param c the coordinates of a line or ring
+	 * @return The effective area of each vertex
+	 */
+	static double[] compute(Coordinate[] c) {
+
+		int      n    = c.length;
+		double[] area = new double[n];
+		Arrays.fill(area, Double.POSITIVE_INFINITY);
+		if (n < 3) {
+			return area;
+		}
+
+		int[] prev = new int[n];
+		int[] next = new int[n];
+		int[] heap = new int[n];
+		int[] pos  = new int[n];
+		int   size = 0;
+
+		for (int i = 0; i < n; i++) {
+			prev[i] = i - 1;
+			next[i] = i + 1;
+		}
+		for (int i = 1; i < n - 1; i++) {
+			area[i]    = triangle(c[i - 1], c[i], c[i + 1]);
+			heap[size] = i;
+			pos[i]     = size;
+			size++;
+		}
+		for (int k = size / 2 - 1; k >= 0; k--) {
+			down(heap, pos, area, size, k);
+		}
+
+		double last = 0d;
+
+		while (size > 0) {
+
+			int i = heap[0];
+			size--;
+			if (size > 0) {
+				heap[0]      = heap[size];
+				pos[heap[0]] = 0;
+				down(heap, pos, area, size, 0);
+			}
+
+			/*
+			 * A vertex can't have a smaller area than one
+			 * removed before it, or thresholds would leave
+			 * holes in the line
+			 */
+			if (area[i] < last) {
+				area[i] = last;
+			}
+			last = area[i];
+
+			int p = prev[i];
+			int q = next[i];
+			next[p] = q;
+			prev[q] = p;
+
+			if (p > 0) {
+				area[p] = triangle(c[prev[p]], c[p], c[q]);
+				up(heap, pos, area, pos[p]);
+				down(heap, pos, area, size, pos[p]);
+			}
+			if (q < n - 1) {
+				area[q] = triangle(c[p], c[q], c[next[q]]);
+				up(heap, pos, area, pos[q]);
+				down(heap, pos, area, size, pos[q]);
+			}
+		}
+		return area;
+	}
+
+	/**
+	 * Keeps the vertices with an area of at least min, 
+	 * lowering min if that would leave fewer than minPoints.
+	 */
+	static Coordinate[] filter(Coordinate[] c, double[] area, double min, int minPoints) {
+
+		int count = 0;
+		for (int i = 0; i < c.length; i++) {
+			if (area[i] >= min) {
+				count++;
+			}
+		}
+
+		if (count < minPoints && c.length >= minPoints) {
+			double[] sorted = area.clone();
+			Arrays.sort(sorted);
+			min   = sorted[c.length - minPoints];
+			count = 0;
+			for (int i = 0; i < c.length; i++) {
+				if (area[i] >= min) {
+					count++;
+				}
+			}
+		}
+
+		Coordinate[] result = new Coordinate[count];
+		int          k      = 0;
+		for (int i = 0; i < c.length; i++) {
+			if (area[i] >= min) {
+				result[k++] = c[i];
+			}
+		}
+		return result;
+	}
+
+	private static double triangle(Coordinate a, Coordinate b, Coordinate c) {
+		return Math.abs((a.x - c.x) * (b.y - a.y) - (a.x - b.x) * (c.y - a.y)) / 2d;
+	}
+
+	private static void up(int[] heap, int[] pos, double[] area, int k) {
+		int v = heap[k];
+		while (k > 0) {
+			int parent = (k - 1) >>> 1;
+			if (area[heap[parent]] <= area[v]) {
+				break;
+			}
+			heap[k]      = heap[parent];
+			pos[heap[k]] = k;
+			k            = parent;
+		}
+		heap[k] = v;
+		pos[v]  = k;
+	}
+
+	private static void down(int[] heap, int[] pos, double[] area, int size, int k) {
+		int v = heap[k];
+		while (true) {
+			int child = 2 * k + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && area[heap[child + 1]] < area[heap[child]]) {
+				child++;
+			}
+			if (area[heap[child]] >= area[v]) {
+				break;
+			}
+			heap[k]      = heap[child];
+			pos[heap[k]] = k;
+			k            = child;
+		}
+		heap[k] = v;
+		pos[v]  = k;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureCollections;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * <p>An in-memory copy of the features held by a Points,
+ * Lines or Polygons object, so that each feature has a
+ * row number and we can build indexes over them. Only the
+ * references to the features are held (nothing is copied)
+ * and the indexes are only built the first time they are
+ * needed.</p>
+ *
+ * <p>A table belongs to one FeatureCollection: Generic
+ * throws it away and builds a new one when the collection
+ * is replaced (e.g. by dedupe), so the indexes can never
+ * be out of step with the data.</p>
+ */
+class FeatureTable {
+
+	final FeatureCollection<SimpleFeatureType, SimpleFeature> source;
+	final SimpleFeature[] features;
+
+	private HashMap<String, AttributeIndex> attributeIndexes = new HashMap<String, AttributeIndex>();
+	private HashMap<String, NumericIndex>   numericIndexes   = new HashMap<String, NumericIndex>();
+	private HashMap<String, StringIndex>    stringIndexes    = new HashMap<String, StringIndex>();
+	private SpatialIndex                    spatialIndex;
+
+	FeatureTable(FeatureCollection<SimpleFeatureType, SimpleFeature> f) {
+
+		this.source = f;
+
+		ArrayList<SimpleFeature> rows = new ArrayList<SimpleFeature>();
+
+		if (f != null) {
+			FeatureIterator<SimpleFeature> i = f.features();
+			try {
+				while (i.hasNext()) {
+					rows.add(i.next());
+				}
+			} finally {
+				if (i != null) {
+					i.close();
+				}
+			}
+		}
+		this.features = rows.toArray(new SimpleFeature[rows.size()]);
+	}
+
+	int size() {
+		return this.features.length;
+	}
+
+	SimpleFeature get(int row) {
+		return this.features[row];
+	}
+
+	/**
+	 * Returns the index of the values in a field, building
+	 * it if this is the first time that it's been asked for.
+	 * @param field the name of the field
+	 * @return AttributeIndex
+	 */
+	synchronized AttributeIndex getAttributeIndex(String field) {
+		AttributeIndex i = this.attributeIndexes.get(field);
+		if (i == null) {
+			i = new AttributeIndex(this, field);
+			this.attributeIndexes.put(field, i);
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the sorted index of the values in a numeric 
+	 * field, building it if this is the first time that 
+	 * it's been asked for.
+	 * @param field the name of the field
+	 * @return NumericIndex
+	 */
+	synchronized NumericIndex getNumericIndex(String field) {
+		NumericIndex i = this.numericIndexes.get(field);
+		if (i == null) {
+			i = new NumericIndex(this, field);
+			this.numericIndexes.put(field, i);
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the sorted index of the values in a field
+	 * as text (for 'LIKE' patterns), building it if this
+	 * is the first time that it's been asked for.
+	 * @param field the name of the field
+	 * @return StringIndex
+	 */
+	synchronized StringIndex getStringIndex(String field) {
+		StringIndex i = this.stringIndexes.get(field);
+		if (i == null) {
+			i = new StringIndex(this, field);
+			this.stringIndexes.put(field, i);
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the spatial index of the features' geometries,
+	 * building it if this is the first time that it's been 
+	 * asked for.
+	 * @return SpatialIndex
+	 */
+	synchronized SpatialIndex getSpatialIndex() {
+		if (this.spatialIndex == null) {
+			this.spatialIndex = new SpatialIndex(this);
+		}
+		return this.spatialIndex;
+	}
+
+	/**
+	 * Wraps a set of rows up as a FeatureCollection. The
+	 * features themselves are shared with this table, not
+	 * copied.
+	 * @param rows the rows to include, in the order we want them
+	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
+	 */
+	FeatureCollection<SimpleFeatureType, SimpleFeature> collect(int[] rows) {
+		FeatureCollection<SimpleFeatureType, SimpleFeature> collection = FeatureCollections.newCollection();
+		for (int i = 0; i < rows.length; i++) {
+			collection.add(this.features[rows[i]]);
+		}
+		return collection;
+	}
+
+	/**
+	 * Wraps a set of rows up as a FeatureCollection, in
+	 * the same order as they are in this table.
+	 * @param rows one bit for each row to include
+	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
+	 */
+	FeatureCollection<SimpleFeatureType, SimpleFeature> collect(BitSet rows) {
+		FeatureCollection<SimpleFeatureType, SimpleFeature> collection = FeatureCollections.newCollection();
+		for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+			collection.add(this.features[i]);
+		}
+		return collection;
+	}
+}
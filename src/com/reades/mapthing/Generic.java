@@ -36,39 +36,40 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.List;
 import java.util.Set;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import net.divbyzero.gpx.parser.JDOM;
 import net.divbyzero.gpx.parser.Parser;
 import net.divbyzero.gpx.parser.ParsingException;
+import net.divbyzero.gpx.parser.SAX;
 
 import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FileDataStore;
 import org.geotools.data.FileDataStoreFinder;
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureCollections;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.feature.SchemaException;
-import org.geotools.filter.text.cql2.CQL;
-import org.geotools.filter.text.cql2.CQLException;
 import org.geotools.geometry.jts.JTSFactoryFinder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.filter.Filter;
-import org.opengis.filter.FilterFactory2;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
@@ -91,7 +92,6 @@ import com.vividsolutions.jts.geom.Point;
  * <li>Build in ColorBrewer for chloropleth maps and test lerpcolor() calls are working as expected
  * <li>Binning of data in arbitrary number of groups
  * <li>Using Strings to create categories from a value field instead of only numeric data
- * <li>Automatically find min and max values in the value field
  * <li>Ability to specify and access more than one value field (so you could cycle between several value columns without needing to copy the entire shape file)
  * <li>Ability to use different binning approaches (e.g. logarithmic, standard deviations, etc.) for numeric data
  * <li>Ability to automagically convert from the source srid to the envelope's srid
@@ -116,6 +116,25 @@ public class Generic implements Serializable {
 	
 	public boolean DEBUG = false;
 	
+	/**
+	 * Ways of splitting the value field into classes
+	 * @see Generic#getClassBreaks(int, int) getClassBreaks
+	 */
+	public static final int QUANTILE       = 0;
+	public static final int EQUAL_INTERVAL = 1;
+	public static final int NATURAL_BREAKS = 2;
+	
+	/**
+	 * Ways of combining values when features are aggregated
+	 * @see Polygons#aggregatePoints(Points, String, int, String) aggregatePoints
+	 * @see Points#merge(double, int, String, String) merge
+	 */
+	public static final int COUNT = 0;
+	public static final int SUM   = 1;
+	public static final int MEAN  = 2;
+	public static final int FIRST = 3;
+	public static final int LAST  = 4;
+	
 	protected String type;
 	protected String source;
 	protected BoundingBox box;
@@ -125,6 +144,15 @@ public class Generic implements Serializable {
 	protected double localSimplify;
 	protected double globalSimplify;
 	
+	// Use Visvalingam-Whyatt for the local simplification
+	// (with the effective areas worked out once and kept)
+	protected boolean visvalingam;
+	transient EffectiveAreas effectiveAreas;
+	
+	// The simplified coordinates for the last few thresholds
+	transient SimplificationCache simplificationCache;
+	private long simplificationCacheLimit = 32L * 1024 * 1024;
+	
 	protected int appletWidth;
 	protected int appletHeight;
 	
@@ -132,12 +160,48 @@ public class Generic implements Serializable {
 	int scaleEndColor   = 0;
 	int scaleMidColor;
 	int scaleSteps;
+	boolean scaleHasMid;
+	
+	/*
+	 * The colour scale is turned into a lookup table of
+	 * scaleSteps colours the first time that it's used and
+	 * each Node remembers the colour it was given (tagged
+	 * with colorVersion) so that we only go back to the
+	 * table when the scale or the min/max values change.
+	 * Versions are unique across all objects since some 
+	 * Nodes are shared between objects.
+	 */
+	private static final AtomicInteger versions = new AtomicInteger();
+	transient int[] colorTable;
+	transient int   colorTableMode;
+	transient float colorMin;
+	transient float colorMax;
+	transient int   colorVersion;
+	
+	/*
+	 * Statistics for the value field are collected each
+	 * time the coordinates are transformed, and the class
+	 * that each Node falls into is remembered in the same
+	 * way as the colours are.
+	 */
+	transient ValueStatistics valueStatistics;
+	transient double[] classBreaks;
+	transient int      classMethod;
+	transient int      classVersion;
 	
 	// These are not serializable and I'm not
 	// about to figure out how to make them so
 	transient FeatureSource<SimpleFeatureType, SimpleFeature> featureSource;
 	transient FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection;
 	
+	// In-memory copy of (references to) the features
+	// and any indexes built on them
+	transient FeatureTable featureTable;
+	transient QueryCache   queryCache;
+	
+	// The type of the centroids for each type of feature
+	transient HashMap<SimpleFeatureType, SimpleFeatureType> centroidTypes;
+	
 	/**
 	 * Default places to look for likely name and
 	 * value fields in the source file. We allow the
@@ -258,7 +322,80 @@ public class Generic implements Serializable {
 	 * @see Generic#setGlobalSimplificationThreshold(double) setGlobalSimplificationThreshold
 	 */
 	public void setLocalSimplificationThreshold(double d) {
-		this.localSimplify = d;
+		if (this.localSimplify != d) {
+			this.localSimplify = d;
+			this.appletWidth   = 0;
+			this.appletHeight  = 0;
+		}
+	}
+	
+	/**
+	 * <p>Switches the local simplification of Lines and
+	 * Polygons to the Visvalingam-Whyatt method. This works out
+	 * how much each vertex contributes to the shape (the area
+	 * of the triangle it makes with its neighbours) once, so
+	 * that the local simplification threshold can be changed
+	 * as often as you like -- e.g. from a slider -- without 
+	 * having to simplify everything again.</p>
+	 * 
+	 * <p>Vertices are kept if their area is at least the 
+	 * square of the local threshold, so the threshold is still
+	 * a distance in the units of the data. This replaces the
+	 * global simplification threshold.</p>
+	 * @param b whether to use Visvalingam-Whyatt simplification
+	 * @see Generic#setLocalSimplificationThreshold(double) setLocalSimplificationThreshold
+	 */
+	public void setVisvalingamSimplification(boolean b) {
+		if (this.visvalingam != b) {
+			this.visvalingam  = b;
+			this.appletWidth  = 0;
+			this.appletHeight = 0;
+		}
+	}
+	
+	/**
+	 * Sets how much memory (roughly, in bytes) can be used
+	 * to remember the simplified coordinates for thresholds
+	 * that have already been used, so that switching back to
+	 * one of them is instant. The default is 32MB.
+	 * @param bytes the most memory to use
+	 */
+	public void setSimplificationCacheLimit(long bytes) {
+		this.simplificationCacheLimit = bytes;
+		if (this.simplificationCache != null) {
+			this.simplificationCache.setLimit(bytes);
+		}
+	}
+	
+	/**
+	 * Returns the cache of simplified coordinates, emptied 
+	 * if the data have changed since it was last used.
+	 */
+	SimplificationCache getSimplificationCache() {
+		if (this.simplificationCache == null) {
+			this.simplificationCache = new SimplificationCache(this.simplificationCacheLimit);
+		}
+		this.simplificationCache.checkTable(this.getFeatureTable());
+		return this.simplificationCache;
+	}
+	
+	/**
+	 * Returns the effective areas of the vertices (when 
+	 * Visvalingam-Whyatt simplification is on and there is
+	 * a local threshold), working them out again if the
+	 * features have changed.
+	 * @param rings true for the outer rings of polygons, false for lines
+	 * @return EffectiveAreas, or null if they're not needed
+	 */
+	EffectiveAreas getEffectiveAreas(boolean rings) {
+		if (! this.visvalingam || this.localSimplify <= 0) {
+			return null;
+		}
+		FeatureTable t = this.getFeatureTable();
+		if (this.effectiveAreas == null || this.effectiveAreas.table != t) {
+			this.effectiveAreas = new EffectiveAreas(t, rings);
+		}
+		return this.effectiveAreas;
 	}
 	
 	/**
@@ -276,14 +413,20 @@ public class Generic implements Serializable {
 	 * @see Generic#setLocalSimplificationThreshold(double) setLocalSimplificationThreshold
 	 */
 	public void setGlobalSimplificationThreshold(double d) {
-		this.globalSimplify = d;
+		if (this.globalSimplify != d) {
+			this.globalSimplify = d;
+			this.appletWidth    = 0;
+			this.appletHeight   = 0;
+		}
 	}
 	
 	/**
 	 * Returns the centroids of an object in a Processing sketch. 
 	 * This essentially clones the Points, Polygons, or Lines object 
 	 * so that you can use both in your sketch with the same 
-	 * reference features.
+	 * reference features. Each centroid keeps the attributes
+	 * (and the id) of the feature that it came from, and they
+	 * are in the same order as the features.
 	 */
 	public FeatureCollection<SimpleFeatureType, SimpleFeature> getCentroids() {
 		
@@ -298,81 +441,171 @@ public class Generic implements Serializable {
 		 * Retrieve the features associated with this object, 
 		 * regardless of type.
 		 */
-		FeatureIterator<SimpleFeature> i = this.getFeatures();
+		final FeatureTable    t         = this.getFeatureTable();
+		final SimpleFeature[] centroids = new SimpleFeature[t.size()];
 		
-		try {
-			
-			while (i.hasNext()) {
+		Workers.run(t.size(), new Workers.Task() {
+			public void run(int from, int to) {
 				
-				SimpleFeature f = i.next();
-				Geometry      g = (Geometry) f.getDefaultGeometry();
-				Point         p = g.getCentroid();
-
-				//DataUtilities.reType(arg0, arg1, arg2);
-				String originalSpec = DataUtilities.spec(f.getFeatureType());
-				StringBuffer newSpec = new StringBuffer();
+				SimpleFeatureType    def            = null;
+				SimpleFeatureType    st             = null;
+				SimpleFeatureBuilder featureBuilder = null;
 				
-				/*
-				 * This sets up the two default elements of the typeSpec
-				 * -- the type of feature and its projection, next we need
-				 * to find out what else is in the the existing feature so
-				 * that we can clone it appropriately
-				 */
-				newSpec.append("location:Point:");
-				newSpec.append("srid=" + this.box.getProjection() + ",");
-								
-				String[] elements = originalSpec.split(",");		
-				for (int k=0; k < elements.length; k++) {
-					if (elements[k].startsWith("the_geom")) {
-						// Do nothing
-					} else if (elements[k].startsWith("srid")) {
-						// Do nothing
-					} else {
-						newSpec.append(elements[k]);
-						if (k < elements.length - 1) {
-							newSpec.append(",");
+				for (int i = from; i < to; i++) {
+					
+					SimpleFeature f = t.get(i);
+					Geometry      g = (Geometry) f.getDefaultGeometry();
+					
+					if (g == null) {
+						continue;
+					}
+					
+					/*
+					 * All of the features normally share one type
+					 * so we only need a new builder if it changes
+					 */
+					if (f.getFeatureType() != def) {
+						def = f.getFeatureType();
+						st  = getCentroidType(def);
+						if (st != null) {
+							featureBuilder = new SimpleFeatureBuilder(st);
 						}
 					}
+					if (st == null) {
+						continue;
+					}
+					
+					featureBuilder.add(g.getCentroid());
+					List<AttributeDescriptor> ads = st.getAttributeDescriptors();
+					for (int k = 1; k < ads.size(); k++) {
+						featureBuilder.add(f.getAttribute(ads.get(k).getLocalName()));
+					}
+					centroids[i] = featureBuilder.buildFeature(f.getID());
 				}
-				
-				/*
-				 * And initialise the new SimpleFeatureType using
-				 * the cloned specification, but with the type changed
-				 * to a Point.
-				 */
-				SimpleFeatureType st = DataUtilities.createType(
-						"Location",                   // <- the name for our feature type
-						newSpec.toString()
-				);
-				
-				/*
-				System.out.println("Original spec is " + originalSpec);
-				System.out.println("New spec is " + newSpec.toString());
-				System.out.println("Features have " + f.getAttributeCount() + " attributes");
-				
-				List<Object> attrs = f.getAttributes();
-				System.out.println("All Attributes: " + attrs.toString());
-				*/
-				SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(st);
-
-				featureBuilder.add(p);
-				for (int k=1; k < f.getAttributeCount(); k++) {
-					featureBuilder.add(f.getAttribute(k));
+			}
+		});
+		
+		for (int i = 0; i < centroids.length; i++) {
+			if (centroids[i] != null) {
+				collection.add(centroids[i]);
+			}
+		}
+		
+		return collection;
+	}
+	
+	/**
+	 * Returns the centroids of the features packed into
+	 * a single array (x0, y0, x1, y1, ...) in the coordinates
+	 * of the data and in the same order as the features. This 
+	 * is much lighter than <code>getCentroids()</code> if you
+	 * just want to draw or measure them. Features without a
+	 * geometry get NaN.
+	 * @return double[]
+	 */
+	public double[] getPackedCentroids() {
+		
+		final FeatureTable t      = this.getFeatureTable();
+		final double[]     packed = new double[2 * t.size()];
+		
+		Workers.run(t.size(), new Workers.Task() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					Geometry g = (Geometry) t.get(i).getDefaultGeometry();
+					if (g == null || g.isEmpty()) {
+						packed[2 * i]     = Double.NaN;
+						packed[2 * i + 1] = Double.NaN;
+					} else {
+						Point p = g.getCentroid();
+						packed[2 * i]     = p.getX();
+						packed[2 * i + 1] = p.getY();
+					}
 				}
-
-				SimpleFeature feature = featureBuilder.buildFeature(null);
-				collection.add(feature);
 			}
-
+		});
+		
+		return packed;
+	}
+	
+	/**
+	 * Returns the centroids as a Points object that can be
+	 * projected (or clustered) like any other. It is built
+	 * straight from <code>getPackedCentroids()</code>, so no 
+	 * features are created along the way: the points only have
+	 * a position, so use <code>getCentroids()</code> instead if
+	 * you want to label, colour or query them by attribute.
+	 * 
+	 * <p>Anything that works on the features doesn't apply to 
+	 * these points: <code>dedupe</code> and <code>merge</code>
+	 * print a message and leave them as they are, queries find
+	 * nothing, and <code>Polygons.aggregatePoints</code> can 
+	 * COUNT them but not SUM or MEAN them.</p>
+	 * @return Points
+	 */
+	public Points getCentroidPoints() {
+		return new Points(this.box, this.getPackedCentroids());
+	}
+	
+	/**
+	 * Returns the type used for the centroids of features 
+	 * of a given type: the same attributes but with a Point
+	 * in place of the original geometry. This is only worked
+	 * out once for each type.
+	 */
+	synchronized SimpleFeatureType getCentroidType(SimpleFeatureType def) {
+		
+		if (this.centroidTypes == null) {
+			this.centroidTypes = new HashMap<SimpleFeatureType, SimpleFeatureType>();
+		}
+		if (this.centroidTypes.containsKey(def)) {
+			return this.centroidTypes.get(def);
+		}
+		
+		SimpleFeatureType st = null;
+		
+		try {
+			//DataUtilities.reType(arg0, arg1, arg2);
+			String originalSpec = DataUtilities.spec(def);
+			StringBuffer newSpec = new StringBuffer();
+			
+			/*
+			 * This sets up the two default elements of the typeSpec
+			 * -- the type of feature and its projection, next we need
+			 * to find out what else is in the the existing feature so
+			 * that we can clone it appropriately
+			 */
+			newSpec.append("location:Point:");
+			newSpec.append("srid=" + this.box.getProjection());
+			
+			String[] elements = originalSpec.split(",");		
+			for (int k=0; k < elements.length; k++) {
+				if (elements[k].startsWith("the_geom")) {
+					// Do nothing
+				} else if (elements[k].startsWith("srid")) {
+					// Do nothing
+				} else {
+					newSpec.append(",");
+					newSpec.append(elements[k]);
+				}
+			}
+			
+			/*
+			 * And initialise the new SimpleFeatureType using
+			 * the cloned specification, but with the type changed
+			 * to a Point.
+			 */
+			st = DataUtilities.createType(
+					"Location",                   // <- the name for our feature type
+					newSpec.toString()
+			);
+			
 		} catch (SchemaException s) {
 			System.out.println("Problem creating the feature type from the source type: " + s.toString());	
-		} finally {
-			if (i != null) {
-				i.close();
-			}
 		}
 		
-		return collection;
+		// Remember failures too, so we only report them once
+		this.centroidTypes.put(def, st);
+		return st;
 	}
 	
 	/**
@@ -405,41 +638,29 @@ public class Generic implements Serializable {
 	 * pass in '%Greater%' as the 'id', and CITY_NAME as 
 	 * the field, then you might get back 'Greater London',
 	 * 'Greater Manchester', etc.</p>
+	 * 
+	 * <p>The values in the field are indexed the first time
+	 * it's searched, so patterns that start with some text
+	 * ('Greater%') only look at the values that start the
+	 * same way, and ones that start with a wildcard only
+	 * look at the values that contain every three letters
+	 * of text in the pattern. Use _ to match any one
+	 * character and \\ in front of a % or _ to match it
+	 * literally. Matching is case-sensitive.</p>
 	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
 	 */
 	public FeatureCollection<SimpleFeatureType, SimpleFeature> getMultipleFeaturesByPattern(String field, String id) {
 		
-		try {
-			
-			Filter c = CQL.toFilter(field + " LIKE '" + id + "'");
-
-			FeatureCollection<SimpleFeatureType,SimpleFeature> fc = featureSource.getFeatures(c);
-			return fc;
-			/*
-			FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2( null );
-			Filter f = ff.like(ff.property(field), id);
-			
-			FeatureIterator<SimpleFeature> it = fc.features();
-			
-			while (it.hasNext()) {
-				SimpleFeature sff = it.next();
-				List<Object> l = sff.getAttributes();
-				
-				System.out.println("Attribute count: " + l.size());
-				for (int i=0; i < l.size(); i++) {
-					System.out.println("Name: " + l.get(i));
-				}
-			}
-			return featureSource.getFeatures( ff.like( ff.property(field), id )); //, false ));
-			*/
-
-		} catch (IOException e) {
-			System.out.println("IOException " + e);
-			e.printStackTrace();
-		} catch (CQLException e) {
-			System.out.println("Error creating CQL Filter: " + e);
+		FeatureTable t  = this.getFeatureTable();
+		QueryCache   qc = this.getQueryCache(t);
+		String      key = QueryCache.key(field, "LIKE", id);
+		BitSet     rows = qc.getMask(key);
+		
+		if (rows == null) {
+			rows = t.getStringIndex(field).find(id);
+			qc.put(key, rows);
 		}
-		return null;
+		return t.collect(rows);
 	}
 	
 	/**
@@ -464,23 +685,27 @@ public class Generic implements Serializable {
 	 * <p>The principal difference between this and the version
 	 * that takes a Set<String> is that the return values will
 	 * ordered by the input array.</p>
+	 * 
+	 * <p>The first time you look something up in a field we 
+	 * build an index of that field's values, so after that
+	 * each lookup only costs as much as the number of ids you
+	 * pass in. The features in the collection are the same 
+	 * objects as in this one (not copies). This works whatever
+	 * the data were loaded from (shape file, CSV, GPX, etc.).</p>
 	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
 	 */
 	public FeatureCollection<SimpleFeatureType, SimpleFeature> getMultipleFeaturesByPattern(String field, String[] ids) {
-		try {
-			FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2( null );
-			
-			List<Filter> match = new ArrayList<Filter>();
-			for (int i=0; i < ids.length; i++) {
-				match.add( ff.equals( ff.property(field), ff.literal(ids[i])) );
-			}
-			Filter filter = ff.or( match );
-			return featureSource.getFeatures( filter );
-		} catch (IOException e) {
-			System.out.println("IOException " + e);
-			e.printStackTrace();
+		
+		FeatureTable t  = this.getFeatureTable();
+		QueryCache   qc = this.getQueryCache(t);
+		String      key = QueryCache.key(field, "IN", ids);
+		int[]      rows = qc.getRows(key);
+		
+		if (rows == null) {
+			rows = t.getAttributeIndex(field).find(Arrays.asList(ids));
+			qc.put(key, rows);
 		}
-		return null;
+		return t.collect(rows);
 	}
 	
 	/**
@@ -507,22 +732,18 @@ public class Generic implements Serializable {
 	 * not necessarily be ordered in any particular way. So 
 	 * if the order of the rows in the Shape file are meaningful 
 	 * in some way then you should use the other method instead.</p>
+	 * 
+	 * <p>As with the other version, this uses an index of the
+	 * field's values that is built on the first lookup.</p>
 	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
 	 */
 	public FeatureCollection<SimpleFeatureType, SimpleFeature> getMultipleFeaturesByPattern(String field, Set<String> ids) {
-		try {
-			FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2( null );
-			
-			List<Filter> match = new ArrayList<Filter>();
-			for ( String id : ids) {
-				match.add( ff.equals( ff.property(field), ff.literal(id)) );
-			}
-			return featureSource.getFeatures( ff.or( match ) );
-		} catch (IOException e) {
-			System.out.println("IOException " + e);
-			e.printStackTrace();
-		}
-		return null;
+		
+		// Sorted so that the same set always gives the same key
+		String[] sorted = ids.toArray(new String[ids.size()]);
+		Arrays.sort(sorted);
+		
+		return this.getMultipleFeaturesByPattern(field, sorted);
 	}
 	
 	/**
@@ -547,17 +768,161 @@ public class Generic implements Serializable {
 	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
 	 */
 	public FeatureCollection<SimpleFeatureType, SimpleFeature> getMultipleFeaturesByValue(String field, double min) {
-		try {
-			FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2( null );
-			
-			List<Filter> match = new ArrayList<Filter>();
-			match.add( ff.greaterOrEqual( ff.property(field), ff.literal(min) ));
-			return featureSource.getFeatures( ff.or( match ) );
-		} catch (IOException e) {
-			System.out.println("IOException " + e);
-			e.printStackTrace();
+		return this.getMultipleFeaturesByValue(field, min, Double.POSITIVE_INFINITY);
+	}
+	
+	/**
+	 * Select a set of attributes whose values fall between
+	 * min and max (inclusive). Use Double.NEGATIVE_INFINITY
+	 * or Double.POSITIVE_INFINITY to leave one end open. 
+	 * @see Generic#getFeatureMaskByValue(String, double, double) getFeatureMaskByValue
+	 * @param field the name of the column in which the values can be found
+	 * @param min   the smallest value to select
+	 * @param max   the largest value to select
+	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
+	 */
+	public FeatureCollection<SimpleFeatureType, SimpleFeature> getMultipleFeaturesByValue(String field, double min, double max) {
+		FeatureTable t = this.getFeatureTable();
+		return t.collect(this.findByValue(t, field, min, max));
+	}
+	
+	/**
+	 * <p>Works out which features have values between min and
+	 * max (inclusive) and returns them as a set of bits: bit
+	 * <i>i</i> is set if the <i>i</i>th feature (which you can 
+	 * get from getFeature(i)) was selected. This is the quickest 
+	 * way to filter things on the fly -- e.g. every time someone
+	 * moves a slider -- since the values are kept sorted in an
+	 * index (built the first time you ask about a field) and 
+	 * nothing else is created.</p>
+	 * <p>Use Double.NEGATIVE_INFINITY or Double.POSITIVE_INFINITY
+	 * to leave one end of the range open.</p>
+	 * @param field the name of the column in which the values can be found
+	 * @param min   the smallest value to select
+	 * @param max   the largest value to select
+	 * @return BitSet
+	 */
+	public BitSet getFeatureMaskByValue(String field, double min, double max) {
+		return (BitSet) this.findByValue(this.getFeatureTable(), field, min, max).clone();
+	}
+	
+	private BitSet findByValue(FeatureTable t, String field, double min, double max) {
+		
+		QueryCache qc = this.getQueryCache(t);
+		String    key = QueryCache.key(field, "BETWEEN", Double.toString(min), Double.toString(max));
+		BitSet   rows = qc.getMask(key);
+		
+		if (rows == null) {
+			rows = t.getNumericIndex(field).find(min, max);
+			qc.put(key, rows);
 		}
-		return null;
+		return rows;
+	}
+	
+	/**
+	 * <p>The results of the getMultipleFeatures* methods are 
+	 * remembered so that asking the same thing again costs 
+	 * next to nothing. When the results held take up more than
+	 * this many bytes (roughly) then the ones that were used 
+	 * least recently are forgotten. The default is 8MB.</p>
+	 * @param bytes the most memory to use for remembered results
+	 */
+	public void setQueryCacheLimit(long bytes) {
+		this.getQueryCache(this.getFeatureTable()).setLimit(bytes);
+	}
+	
+	/**
+	 * @return The number of queries answered from the cache
+	 */
+	public int getQueryCacheHits() {
+		return this.getQueryCache(this.getFeatureTable()).getHits();
+	}
+	
+	/**
+	 * @return The number of queries that had to be run
+	 */
+	public int getQueryCacheMisses() {
+		return this.getQueryCache(this.getFeatureTable()).getMisses();
+	}
+	
+	/**
+	 * Returns the query cache, emptied if the data
+	 * have changed since it was last used.
+	 */
+	QueryCache getQueryCache(FeatureTable t) {
+		if (this.queryCache == null) {
+			this.queryCache = new QueryCache(8L * 1024 * 1024);
+		}
+		this.queryCache.checkTable(t);
+		return this.queryCache;
+	}
+	
+	/**
+	 * @return The number of features held by this object
+	 */
+	public int getFeatureCount() {
+		return this.getFeatureTable().size();
+	}
+	
+	/**
+	 * Returns a single feature by its position in the data.
+	 * @param i the position of the feature (from 0)
+	 * @return SimpleFeature
+	 */
+	public SimpleFeature getFeature(int i) {
+		return this.getFeatureTable().get(i);
+	}
+	
+	/**
+	 * <p>Finds the features that intersect a BoundingBox 
+	 * (e.g. the part of the map that is currently on screen) 
+	 * and returns their positions, which can be passed to
+	 * <code>getFeature(int)</code>. The positions are in the
+	 * same order as the features in the data.</p>
+	 * 
+	 * <p>A spatial index is built the first time this is
+	 * called (and rebuilt if the features change) so that
+	 * only the features near the box are looked at.</p>
+	 * @param b the area to search, in the coordinates of the data
+	 * @return int[]
+	 */
+	public int[] query(BoundingBox b) {
+		return this.query(new Envelope(b.getWest(), b.getEast(), b.getSouth(), b.getNorth()));
+	}
+	
+	/**
+	 * Finds the features that intersect a rectangle on
+	 * the sketch (e.g. one dragged out with the mouse). The
+	 * corners can be given in either order.
+	 * @param a  the Processing PApplet object
+	 * @param x1 the x-position of one corner of the rectangle
+	 * @param y1 the y-position of one corner of the rectangle
+	 * @param x2 the x-position of the opposite corner
+	 * @param y2 the y-position of the opposite corner
+	 * @return int[]
+	 */
+	public int[] query(PApplet a, float x1, float y1, float x2, float y2) {
+		return this.query(new Envelope(
+				this.map(x1, 0f, a.width, box.getWest(), box.getEast()), 
+				this.map(x2, 0f, a.width, box.getWest(), box.getEast()), 
+				this.map(y1, 0f, a.height, box.getNorth(), box.getSouth()), 
+				this.map(y2, 0f, a.height, box.getNorth(), box.getSouth())
+		));
+	}
+	
+	/**
+	 * Retrieves the features that intersect a BoundingBox
+	 * and returns them as a FeatureCollection.
+	 * @param b the area to search, in the coordinates of the data
+	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
+	 */
+	public FeatureCollection<SimpleFeatureType, SimpleFeature> getMultipleFeaturesInBox(BoundingBox b) {
+		FeatureTable t = this.getFeatureTable();
+		return t.collect(t.getSpatialIndex().find(new Envelope(b.getWest(), b.getEast(), b.getSouth(), b.getNorth())));
+	}
+	
+	private int[] query(Envelope e) {
+		return this.getFeatureTable().getSpatialIndex().find(e);
 	}
 	
 	/**
@@ -569,7 +934,34 @@ public class Generic implements Serializable {
 	 * @return FeatureIterator<SimpleFeature>
 	 */
 	public FeatureIterator<SimpleFeature> getFeatures() {
-		return this.featureCollection.features();
+		return this.getFeatureCollection().features();
+	}
+	
+	/**
+	 * Returns the features held by this object. Sub-classes
+	 * that share their features with another object can
+	 * override this to create the collection only when it's
+	 * actually needed.
+	 * @return FeatureCollection<SimpleFeatureType, SimpleFeature>
+	 */
+	FeatureCollection<SimpleFeatureType, SimpleFeature> getFeatureCollection() {
+		return this.featureCollection;
+	}
+	
+	/**
+	 * Returns the in-memory table of this object's features,
+	 * building a new one if the FeatureCollection has been 
+	 * replaced since the last one was built.
+	 * @return FeatureTable
+	 */
+	FeatureTable getFeatureTable() {
+		FeatureTable t = this.featureTable;
+		FeatureCollection<SimpleFeatureType, SimpleFeature> f = this.getFeatureCollection();
+		if (t == null || t.source != f) {
+			t = new FeatureTable(f);
+			this.featureTable = t;
+		}
+		return t;
 	}
 	
 	/**
@@ -577,7 +969,7 @@ public class Generic implements Serializable {
 	 * @return A ReferenceEnvelop object
 	 */
 	public ReferencedEnvelope getBounds() {
-		return featureCollection.getBounds();
+		return this.getFeatureCollection().getBounds();
 	}
 	
 	/**
@@ -643,7 +1035,9 @@ public class Generic implements Serializable {
 	public void setColorScale(int lowColor, int highColor, int numberOfSteps) {
 		this.scaleStartColor = lowColor;
 		this.scaleEndColor   = highColor;
+		this.scaleHasMid     = false;
 		this.scaleSteps      = numberOfSteps;
+		this.colorTable      = null;
 	}
 	
 	/**
@@ -673,7 +1067,9 @@ public class Generic implements Serializable {
 		this.scaleStartColor = lowColor;
 		this.scaleEndColor   = highColor;
 		this.scaleMidColor   = midColor;
+		this.scaleHasMid     = true;
 		this.scaleSteps      = numberOfSteps;
+		this.colorTable      = null;
 	}
 	
 	/**
@@ -690,8 +1086,40 @@ public class Generic implements Serializable {
 		this.setColorScale(lowColour, midColour, highColour, numberOfSteps);
 	}
 	
+	/**
+	 * <p>Returns the colour for a value on this object's 
+	 * colour scale. If the scale was set up with a number 
+	 * of steps then the range between min and max is split
+	 * into that many bins and the colour is looked up from
+	 * a table that is only rebuilt when the scale changes. 
+	 * Values below the minimum (or missing, i.e. NaN) get 
+	 * the first colour, and values above the maximum get 
+	 * the last.</p>
+	 * @param a     the PApplet (needed for the colour mode)
+	 * @param value the value to colour
+	 * @param min   the minimum value of the value field
+	 * @param max   the maximum value of the value field
+	 * @return A Processing color
+	 */
 	public int interpolateColor(PApplet a, float value, float min, float max) {
 		
+		if (Float.isNaN(value)) {
+			value = min;
+		}
+		
+		if (this.scaleSteps > 0) {
+			int[] table = this.getColorTable(a);
+			int   bin;
+			if (value <= min || max <= min) {
+				bin = 0;
+			} else if (value >= max) {
+				bin = table.length - 1;
+			} else {
+				bin = Math.min(table.length - 1, (int) ((value - min) / (max - min) * table.length));
+			}
+			return table[bin];
+		}
+		
 		int low;
 		int high;
 		
@@ -712,12 +1140,154 @@ public class Generic implements Serializable {
 		return a.g.lerpColor(low, high, PApplet.map(value, min, max, 0, 1));
 	}
 	
+	/**
+	 * Returns the colour for a Node, re-using the colour
+	 * that the Node was given last time unless the scale,
+	 * the colour mode, or the min/max values have changed
+	 * since then. This is what the projectValues methods use
+	 * so that we aren't interpolating colours on every frame.
+	 * @param a   the PApplet (needed for the colour mode)
+	 * @param n   the Node to colour
+	 * @param min the minimum value of the value field
+	 * @param max the maximum value of the value field
+	 * @return A Processing color
+	 */
+	int getColor(PApplet a, Node n, float min, float max) {
+		
+		if (this.colorVersion == 0 || this.colorTable == null || this.colorTableMode != a.g.colorMode 
+				|| this.colorMin != min || this.colorMax != max) {
+			this.getColorTable(a);
+			this.colorMin     = min;
+			this.colorMax     = max;
+			this.colorVersion = versions.incrementAndGet();
+		}
+		
+		if (n.colorVersion != this.colorVersion) {
+			n.color        = this.interpolateColor(a, (float) n.getValue(), min, max);
+			n.colorVersion = this.colorVersion;
+		}
+		return n.color;
+	}
+	
+	/**
+	 * Returns the statistics (minimum, maximum, mean, and
+	 * quantiles) for the value field. These are worked out
+	 * when the coordinates are transformed, so you'll get an
+	 * empty set of statistics back until you've called project
+	 * (or transformCoordinates) at least once.
+	 * @return ValueStatistics
+	 */
+	public ValueStatistics getValueStatistics() {
+		if (this.valueStatistics == null) {
+			this.valueStatistics = new ValueStatistics();
+		}
+		return this.valueStatistics;
+	}
+	
+	/**
+	 * Called by the sub-classes when they start to transform
+	 * their coordinates so that the value statistics (and any
+	 * classes based on them) are worked out afresh.
+	 * @return The new (empty) ValueStatistics object
+	 */
+	ValueStatistics resetValueStatistics() {
+		this.valueStatistics = new ValueStatistics();
+		this.classBreaks     = null;
+		return this.valueStatistics;
+	}
+	
+	/**
+	 * <p>Splits the value field into classes using one
+	 * of QUANTILE, EQUAL_INTERVAL or NATURAL_BREAKS. The
+	 * array has one more entry than there are classes: the
+	 * first is the minimum value and the last is the maximum.</p>
+	 * <p>The breaks are only worked out again if you change
+	 * the method or number of classes, or the data changes.</p>
+	 * @param method  the classification method
+	 * @param classes the number of classes
+	 * @return double[]
+	 */
+	public double[] getClassBreaks(int method, int classes) {
+		if (this.classBreaks == null || this.classMethod != method || this.classBreaks.length != classes + 1) {
+			this.classBreaks  = this.getValueStatistics().getBreaks(method, classes);
+			this.classMethod  = method;
+			this.classVersion = versions.incrementAndGet();
+		}
+		return this.classBreaks;
+	}
+	
+	/**
+	 * Returns the class that a Node falls into, re-using the
+	 * class that the Node was given last time unless the
+	 * classification has changed since then.
+	 * @param n       the Node to classify
+	 * @param method  the classification method
+	 * @param classes the number of classes
+	 * @return The class number (from 0)
+	 */
+	int classify(Node n, int method, int classes) {
+		double[] breaks = this.getClassBreaks(method, classes);
+		if (n.classVersion != this.classVersion) {
+			n.classId      = ValueStatistics.getClass(n.getValue(), breaks);
+			n.classVersion = this.classVersion;
+		}
+		return n.classId;
+	}
+	
+	/**
+	 * Returns one colour for each class, taken from the
+	 * middle of that class' share of the colour scale.
+	 * @param a       the PApplet (needed for the colour mode)
+	 * @param classes the number of classes
+	 * @return int[]
+	 */
+	int[] getClassColors(PApplet a, int classes) {
+		int[] colors = new int[classes];
+		for (int i = 0; i < classes; i++) {
+			colors[i] = this.interpolateColor(a, i + 0.5f, 0f, classes);
+		}
+		return colors;
+	}
+	
+	/**
+	 * Builds the lookup table for the colour scale -- with
+	 * scaleSteps colours running from the low colour to the 
+	 * high colour (through the mid colour if there is one).
+	 * @param a the PApplet (needed for the colour mode)
+	 * @return int[]
+	 */
+	private int[] getColorTable(PApplet a) {
+		
+		if (this.colorTable != null && this.colorTableMode == a.g.colorMode) {
+			return this.colorTable;
+		}
+		
+		int   steps = Math.max(1, this.scaleSteps);
+		int[] table = new int[steps];
+		
+		for (int i = 0; i < steps; i++) {
+			float t = (steps == 1) ? 0f : (float) i / (steps - 1);
+			if (this.scaleHasMid && t < 0.5f) {
+				table[i] = a.g.lerpColor(this.scaleStartColor, this.scaleMidColor, t * 2f);
+			} else if (this.scaleHasMid) {
+				table[i] = a.g.lerpColor(this.scaleMidColor, this.scaleEndColor, (t - 0.5f) * 2f);
+			} else {
+				table[i] = a.g.lerpColor(this.scaleStartColor, this.scaleEndColor, t);
+			}
+		}
+		
+		this.colorTable     = table;
+		this.colorTableMode = a.g.colorMode;
+		this.colorVersion   = 0;
+		return table;
+	}
+	
 	public int getProjection() {
 		
 		if (this.srid > 0) {
 			return this.srid;
 		} else {
-			String proj = DataUtilities.spec(this.featureCollection.getSchema());
+			String proj = DataUtilities.spec(this.getFeatureCollection().getSchema());
 			System.out.println("Projection string: " + proj);
 			if (proj.indexOf("srid") == -1) {
 				System.out.println("Can't check srid on Multi-Line objects");
@@ -741,46 +1311,200 @@ public class Generic implements Serializable {
 	}
 	
 	/**
-	 * Incomplete implementation -- this is supposed
-	 * to allow you to select features falling within
-	 * a particular distance of a polygon, but as yet I've
-	 * not quite figured how to do it properly.
+	 * <p>Finds the nearest feature in another object (within
+	 * maxDistance, in the units of the data) to each of the 
+	 * features in this one and attaches it to them. So, for
+	 * instance, you could find the nearest canal to each of a
+	 * set of address points.</p>
+	 * 
+	 * <p>Each feature gains a <code>nearest_id</code> field (the
+	 * id of the nearest feature), a <code>nearest_dist</code> field
+	 * (the distance to it), and a copy of each of the nearest
+	 * feature's attributes with "near_" in front of the name. If 
+	 * there's nothing within maxDistance then these are left empty.
+	 * If one of these names is already taken (because you've done
+	 * this before, say) then "_2", "_3", etc. is added to the end
+	 * of the new one.</p>
+	 * 
+	 * <p>The other object's features are put into a spatial index
+	 * first, which is searched from the closest branches outwards
+	 * so that we only measure the distance to the features that
+	 * might be nearest (however big maxDistance is), and the work 
+	 * is spread over all of the available processors.</p>
+	 * @param gs          the object containing the features to look for
+	 * @param maxDistance the furthest away a feature can be and still count
 	 */
-	public void appendNearestFeatures(Generic gs, double maxDistance) {
+	public void appendNearestFeatures(Generic gs, final double maxDistance) {
+		
+		final FeatureTable source = this.getFeatureTable();
+		final FeatureTable target = gs.getFeatureTable();
+		
+		if (source.size() == 0) {
+			return;
+		}
 		
 		/*
-		 * This class' feature iterator
+		 * The spatial index on the features that we're
+		 * looking for (which is kept for next time)
 		 */
-		FeatureIterator<SimpleFeature> fi  = this.featureCollection.features();
+		final SpatialIndex index = target.getSpatialIndex();
 		
-		try {
-			while (fi.hasNext()) {
-				SimpleFeature  s = fi.next();
-				Geometry theGeom = (Geometry) s.getDefaultGeometry();
-
-				for (int i = 0; i < theGeom.getNumGeometries(); i++) {
-
-					//System.out.println("Got geometry " + i);
-					Geometry g = theGeom.getGeometryN(i);
-					/*
-					FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2(null);
-				    Filter filter = ff.dwithin(ff.property("POLYGON"), ff.literal(point), maxDistance, uom.toString());
-				    featureSource.getFeatures(filter);
-				    */
-
-					if (g.getGeometryType().equalsIgnoreCase("point")) {
-						// Point      p = (Point) g;
-						//Coordinate c = p.getCoordinate();
-					} else if (g.getGeometryType().equalsIgnoreCase("polyline")) {
-						
+		/*
+		 * And the new type: everything we had before plus
+		 * the id, distance, and attributes of the nearest 
+		 * feature.
+		 */
+		SimpleFeatureType ft   = source.get(0).getFeatureType();
+		HashSet<String>   used = new HashSet<String>();
+		for (AttributeDescriptor ad : ft.getAttributeDescriptors()) {
+			used.add(ad.getLocalName());
+		}
+		
+		SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+		stb.init(ft);
+		stb.add(uniqueName(used, "nearest_id"), String.class);
+		stb.add(uniqueName(used, "nearest_dist"), Double.class);
+		
+		final ArrayList<String> copied = new ArrayList<String>();
+		if (target.size() > 0) {
+			SimpleFeatureType tt = target.get(0).getFeatureType();
+			for (AttributeDescriptor ad : tt.getAttributeDescriptors()) {
+				if (! (ad instanceof GeometryDescriptor)) {
+					copied.add(ad.getLocalName());
+					stb.add(uniqueName(used, "near_" + ad.getLocalName()), ad.getType().getBinding());
+				}
+			}
+		}
+		final SimpleFeatureType st = stb.buildFeatureType();
+		
+		final SimpleFeature[] joined = new SimpleFeature[source.size()];
+		
+		Workers.run(source.size(), new Workers.Task() {
+			public void run(int from, int to) {
+				
+				SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(st);
+				
+				for (int i = from; i < to; i++) {
+					
+					SimpleFeature s = source.get(i);
+					Geometry     g  = (Geometry) s.getDefaultGeometry();
+					
+					int    nearest  = -1;
+					double distance = 0;
+					
+					if (g != null && ! g.isEmpty()) {
+						nearest = index.nearest(g, maxDistance);
+						if (nearest != -1) {
+							distance = g.distance((Geometry) target.get(nearest).getDefaultGeometry());
+						}
+					}
+					
+					featureBuilder.addAll(s.getAttributes());
+					if (nearest == -1) {
+						featureBuilder.add(null);
+						featureBuilder.add(null);
+						for (int k = 0; k < copied.size(); k++) {
+							featureBuilder.add(null);
+						}
+					} else {
+						SimpleFeature n = target.get(nearest);
+						featureBuilder.add(n.getID());
+						featureBuilder.add(Double.valueOf(distance));
+						for (int k = 0; k < copied.size(); k++) {
+							featureBuilder.add(n.getAttribute(copied.get(k)));
+						}
 					}
+					joined[i] = featureBuilder.buildFeature(s.getID());
 				}
 			}
-		} finally {
-			if (fi != null) {
-				fi.close();
+		});
+		
+		FeatureCollection<SimpleFeatureType, SimpleFeature> collection = FeatureCollections.newCollection();
+		for (int i = 0; i < joined.length; i++) {
+			collection.add(joined[i]);
+		}
+		this.setFeatureCollection(collection);
+	}
+	
+	/**
+	 * @return name, or name with "_2", "_3", etc. added if 
+	 * it's already in used (which it's then added to)
+	 */
+	private static String uniqueName(HashSet<String> used, String name) {
+		String unique = name;
+		for (int k = 2; used.contains(unique); k++) {
+			unique = name + "_" + k;
+		}
+		used.add(unique);
+		return unique;
+	}
+	
+	/**
+	 * Replaces the features held by this object, which
+	 * means that the coordinates will be transformed again
+	 * the next time they're projected (and any indexes and
+	 * cached query results are rebuilt when next needed).
+	 * @param f the new features
+	 */
+	protected void setFeatureCollection(FeatureCollection<SimpleFeatureType, SimpleFeature> f) {
+		this.featureCollection = f;
+		this.appletWidth       = 0;
+		this.appletHeight      = 0;
+	}
+	
+	/**
+	 * Adds a numeric column to every feature (or replaces
+	 * it if there is already one with that name) and then
+	 * swaps in the new features. NaN values are stored as
+	 * nulls so they're skipped like any other missing value.
+	 * @param name   the name of the column
+	 * @param values one value for each row of the FeatureTable
+	 */
+	void setValueColumn(String name, final double[] values) {
+		
+		final FeatureTable t = this.getFeatureTable();
+		if (t.size() == 0) {
+			return;
+		}
+		
+		SimpleFeatureType def = t.get(0).getFeatureType();
+		
+		SimpleFeatureTypeBuilder stb = new SimpleFeatureTypeBuilder();
+		stb.setName(def.getTypeName());
+		stb.setCRS(def.getCoordinateReferenceSystem());
+		for (AttributeDescriptor ad : def.getAttributeDescriptors()) {
+			if (! ad.getLocalName().equals(name)) {
+				stb.add(ad);
 			}
 		}
+		stb.add(name, Double.class);
+		
+		final SimpleFeatureType st    = stb.buildFeatureType();
+		final SimpleFeature[]   built = new SimpleFeature[t.size()];
+		final String            field = name;
+		
+		Workers.run(t.size(), new Workers.Task() {
+			public void run(int from, int to) {
+				
+				SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(st);
+				List<AttributeDescriptor> ads       = st.getAttributeDescriptors();
+				
+				for (int i = from; i < to; i++) {
+					SimpleFeature f = t.get(i);
+					for (int k = 0; k < ads.size() - 1; k++) {
+						featureBuilder.add(f.getAttribute(ads.get(k).getLocalName()));
+					}
+					featureBuilder.add(Double.isNaN(values[i]) ? null : Double.valueOf(values[i]));
+					built[i] = featureBuilder.buildFeature(f.getID());
+				}
+			}
+		});
+		
+		FeatureCollection<SimpleFeatureType, SimpleFeature> collection = FeatureCollections.newCollection();
+		for (int i = 0; i < built.length; i++) {
+			collection.add(built[i]);
+		}
+		this.setFeatureCollection(collection);
 	}
 	
 	private void instantiateShapeFile(String r) throws IOException {
@@ -1084,10 +1808,12 @@ public class Generic implements Serializable {
 		System.out.println("Opening GPX track file " + f.getPath());
 
 		/*
-		 * First we need to set up a JDOM parser and 
+		 * First we need to set up a GPX parser and 
 		 * extract the GPS waypoints from the GPX file
+		 * (SAX rather than JDOM, so that a big file
+		 * isn't read into memory all at once)
 		 */
-		Parser parser = new JDOM();
+		Parser parser = new SAX();
 		net.divbyzero.gpx.GPX gpx = null;
 		try {
 			gpx = parser.parse(f);
@@ -1152,14 +1878,16 @@ public class Generic implements Serializable {
 						
 						for (int j=0; j < tsa.size(); j++) {
 							
-							ArrayList<net.divbyzero.gpx.Waypoint> waa = tsa.get(j).getWaypoints();
+							net.divbyzero.gpx.TrackSegment ts = tsa.get(j);
 							
-							for (int k=0; k < waa.size(); k++) {
+							for (int k=0; k < ts.size(); k++) {
 								
-								net.divbyzero.gpx.Coordinate c = waa.get(k).getCoordinate();
+								double y = ts.getLatitude(k);
+								double x = ts.getLongitude(k);
 								
-								double y = c.getLatitude();
-								double x = c.getLongitude();
+								if (Double.isNaN(y)) {
+									continue;
+								}
 								
 								if (DEBUG == true)
 									System.out.println("Creating waypoint with lat/lon: " + x + "/" + y);
@@ -1185,17 +1913,18 @@ public class Generic implements Serializable {
 						
 						for (int j=0; j < tsa.size(); j++) {
 							
-							ArrayList<net.divbyzero.gpx.Waypoint> waa = tsa.get(j).getWaypoints();
+							net.divbyzero.gpx.TrackSegment ts = tsa.get(j);
 							
-							for (int k=1; k < waa.size(); k++) {
+							for (int k=1; k < ts.size(); k++) {
 								
-								net.divbyzero.gpx.Coordinate c1 = waa.get(k-1).getCoordinate();
-								net.divbyzero.gpx.Coordinate c2 = waa.get(k).getCoordinate();
+								double y1 = ts.getLatitude(k-1);
+								double x1 = ts.getLongitude(k-1);
+								double y2 = ts.getLatitude(k);
+								double x2 = ts.getLongitude(k);
 								
-								double y1 = c1.getLatitude();
-								double x1 = c1.getLongitude();
-								double y2 = c2.getLatitude();
-								double x2 = c2.getLongitude();
+								if (Double.isNaN(y1) || Double.isNaN(y2)) {
+									continue;
+								}
 								
 								Coordinate[] c = new Coordinate[2];
 								c[0] = new Coordinate(x1, y1);
@@ -0,0 +1,112 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+/**
+ * <p>Sorts the positions of a set of keys rather than the
+ * keys themselves, which is what the indexes need: the
+ * positions tell them which row each sorted value came from.
+ * This is a plain (stable) merge sort so that we don't have
+ * to box everything up to use Arrays.sort with a Comparator.</p>
+ */
+class IndexSort {
+
+	/**
+	 * Compares the keys at two positions.
+	 */
+	interface Keys {
+		int compare(int a, int b);
+	}
+
+	/**
+	 * Fills order[] with 0..n-1 sorted by key[].
+	 * @param order where to put the positions
+	 * @param key   the keys (with no NaNs)
+	 * @param n     the number of keys
+	 */
+	static void sort(int[] order, final double[] key, int n) {
+		sort(order, n, new Keys() {
+			public int compare(int a, int b) {
+				return (key[a] < key[b]) ? -1 : ((key[a] > key[b]) ? 1 : 0);
+			}
+		});
+	}
+
+	/**
+	 * Fills order[] with 0..n-1 sorted by key[].
+	 * @param order where to put the positions
+	 * @param key   the keys (with no nulls)
+	 * @param n     the number of keys
+	 */
+	static void sort(int[] order, final String[] key, int n) {
+		sort(order, n, new Keys() {
+			public int compare(int a, int b) {
+				return key[a].compareTo(key[b]);
+			}
+		});
+	}
+
+	/**
+	 * Fills order[] with 0..n-1 sorted by whatever keys
+	 * the positions refer to.
+	 * @param order where to put the positions
+	 * @param n     the number of keys
+	 * @param keys  compares the keys at two positions
+	 */
+	static void sort(int[] order, int n, Keys keys) {
+
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+
+		int[] src = order;
+		int[] dst = new int[n];
+
+		for (int width = 1; width < n; width *= 2) {
+			for (int lo = 0; lo < n; lo += 2 * width) {
+				int mid = Math.min(lo + width, n);
+				int hi  = Math.min(lo + 2 * width, n);
+				int i = lo;
+				int j = mid;
+				for (int k = lo; k < hi; k++) {
+					if (i < mid && (j >= hi || keys.compare(src[i], src[j]) <= 0)) {
+						dst[k] = src[i++];
+					} else {
+						dst[k] = src[j++];
+					}
+				}
+			}
+			int[] tmp = src;
+			src = dst;
+			dst = tmp;
+		}
+
+		if (src != order) {
+			System.arraycopy(src, 0, order, 0, n);
+		}
+	}
+}
@@ -61,6 +61,9 @@ public class Lines extends Generic implements Serializable {
 	
 	ArrayList<Node[]> transformedCoordinates;
 	ArrayList<Coordinate[]> rawCoordinates;
+	
+	// The lines clipped to what was on screen last time
+	transient Viewport viewport;
 
 	/**
 	 * Instantiate the GeoLine object with a 
@@ -112,6 +115,27 @@ public class Lines extends Generic implements Serializable {
 			
 				transformedCoordinates = new ArrayList<Node[]>();
 				rawCoordinates         = new ArrayList<Coordinate[]>();
+				
+				ValueStatistics stats  = this.resetValueStatistics();
+				
+				/*
+				 * If we've already simplified everything with
+				 * this threshold then just use those coordinates
+				 */
+				String key = null;
+				if (this.visvalingam && this.localSimplify > 0) {
+					key = "vw " + this.localSimplify;
+				} else if (this.localSimplify > 0) {
+					key = "dp " + this.localSimplify;
+				}
+				
+				SimplificationCache       cache    = this.getSimplificationCache();
+				SimplificationCache.Level cached   = (key == null) ? null : cache.get(key);
+				SimplificationCache.Level computed = new SimplificationCache.Level();
+				int                       part     = 0;
+				
+				EffectiveAreas  areas  = (cached == null) ? this.getEffectiveAreas(false) : null;
+				int             next   = 0;
 
 				/*
 				 * featureCollection was instantiated in the superclass
@@ -131,36 +155,49 @@ public class Lines extends Generic implements Serializable {
 						Geometry      theGeom = (Geometry) feature.getDefaultGeometry();
 						SimpleFeatureType def = feature.getFeatureType();
 
-						for (int i = 0; i < theGeom.getNumGeometries(); i++) {
+						String theName  = "";
+						Double theValue = 0d;
 
-							//System.out.println("Got geometry " + i);
-							Geometry g = theGeom.getGeometryN(i);
+						if (this.labelPosition > 0) {
+							theName = (String) feature.getAttribute(this.labelPosition);
+						} else if (def.indexOf(this.labelName) != -1) {
+							theName = (String) feature.getAttribute(this.labelName);
+						}
 
-							String theName  = "";
-							Double theValue = 0d;
+						if (this.valuePosition > 0) {
+							theValue = (Double) feature.getAttribute(this.valuePosition);
+						} else if (def.indexOf(this.valueName) != -1) {
+							theValue = (Double) feature.getAttribute(this.valueName);
+						}
+						
+						// A missing value (e.g. an empty polygon's mean) is kept as NaN
+						double value = (theValue == null) ? Double.NaN : theValue.doubleValue();
+						stats.add(value);
 
-							if (this.labelPosition > 0) {
-								theName = (String) feature.getAttribute(this.labelPosition);
-							} else if (def.indexOf(this.labelName) != -1) {
-								theName = (String) feature.getAttribute(this.labelName);
-							}
+						for (int i = 0; i < theGeom.getNumGeometries(); i++) {
 
-							if (this.valuePosition > 0) {
-								theValue = (Double) feature.getAttribute(this.valuePosition);
-							} else if (def.indexOf(this.valueName) != -1) {
-								theValue = (Double) feature.getAttribute(this.valueName);
-							}
+							//System.out.println("Got geometry " + i);
+							Geometry g = theGeom.getGeometryN(i);
 
 							if (g.getGeometryType().equalsIgnoreCase("linestring")) {
 
 								Coordinate[] c = null;
 
 								LineString   l = (LineString) g;
-								if (this.localSimplify > 0) {
+								if (cached != null) {
+									c = cached.parts.get(part);
+								} else if (areas != null) {
+									c = areas.get(next++, this.localSimplify * this.localSimplify, 2);
+								} else if (this.localSimplify > 0) {
 									c = DouglasPeuckerLineSimplifier.simplify(l.getCoordinates(), this.localSimplify);
 								} else {
 									c = l.getCoordinates();
 								}
+								
+								if (key != null && cached == null) {
+									computed.parts.add(c);
+								}
+								part++;
 
 								rawCoordinates.add(c);
 
@@ -171,7 +208,8 @@ public class Lines extends Generic implements Serializable {
 												c[j].hashCode(),
 												this.map((float) c[j].x, box.getWest(), box.getEast(), 0f, a.width),
 												this.map((float) c[j].y, box.getNorth(), box.getSouth(), 0f, a.height),
-												theValue.doubleValue(), 
+												0d,
+												value, 
 												theName
 										);
 										if (DEBUG == true) {
@@ -193,6 +231,10 @@ public class Lines extends Generic implements Serializable {
 						iterator.close();
 					}
 				}
+				
+				if (key != null && cached == null) {
+					cache.put(key, computed);
+				}
 			}
 		}
 	}
@@ -238,10 +280,11 @@ public class Lines extends Generic implements Serializable {
 	public void project(PApplet a) {
 		
 		ArrayList<Node[]> al = this.getCoordinates(a);
+		Viewport          v  = this.getViewport(a.g, al);
 		//println("Multiline array list returned " + a.size());
 
-		for (int i = 0; i < al.size(); i++) {
-			Node[] line = al.get(i);
+		for (int i = 0; i < v.shapes.size(); i++) {
+			Node[] line = v.shapes.get(i);
 			for (int j = 0; j < line.length-1; j++) {
 				a.g.line(line[j].getX(), line[j].getY(), line[j+1].getX(), line[j+1].getY());
 			}
@@ -259,11 +302,51 @@ public class Lines extends Generic implements Serializable {
 	public void projectValues(PApplet a, float min, float max) {
 		
 		ArrayList<Node[]> al = this.getCoordinates(a);
+		Viewport          v  = this.getViewport(a.g, al);
 		//println("Multiline array list returned " + al.size());
 		
-		for (int i = 0; i < al.size(); i++) {
-			Node[] line = al.get(i);
-			a.g.stroke(this.interpolateColor(a, (float) line[0].getValue(), min, max));
+		for (int i = 0; i < v.shapes.size(); i++) {
+			Node[] line = v.shapes.get(i);
+			a.g.stroke(this.getColor(a, al.get(v.parts[i])[0], min, max));
+			for (int j = 0; j < line.length-1; j++) {
+				a.g.line(line[j].getX(), line[j].getY(), line[j+1].getX(), line[j+1].getY());
+			}
+		}
+	}
+	
+	/**
+	 * Apply a color scale to the the lines using 
+	 * the minimum and maximum of the value field as
+	 * the ends of the scale.
+	 * @see Lines#projectValues(PApplet, float, float) projectValues
+	 * @param a		a Processing PApplet object
+	 */
+	public void projectValues(PApplet a) {
+		this.transformCoordinates(a);
+		ValueStatistics v = this.getValueStatistics();
+		this.projectValues(a, (float) v.getMin(), (float) v.getMax());
+	}
+	
+	/**
+	 * Colour the lines by splitting the value field
+	 * into classes and giving each class its own colour 
+	 * from the colour scale. The class each line falls
+	 * into is only worked out again when the classification
+	 * (or the data) changes.
+	 * @see Generic#getClassBreaks(int, int) getClassBreaks
+	 * @param a			a Processing PApplet object
+	 * @param method	one of QUANTILE, EQUAL_INTERVAL or NATURAL_BREAKS
+	 * @param classes	the number of classes
+	 */
+	public void projectClasses(PApplet a, int method, int classes) {
+		
+		ArrayList<Node[]> al = this.getCoordinates(a);
+		Viewport          v  = this.getViewport(a.g, al);
+		int[] colors = this.getClassColors(a, classes);
+		
+		for (int i = 0; i < v.shapes.size(); i++) {
+			Node[] line = v.shapes.get(i);
+			a.g.stroke(colors[this.classify(al.get(v.parts[i])[0], method, classes)]);
 			for (int j = 0; j < line.length-1; j++) {
 				a.g.line(line[j].getX(), line[j].getY(), line[j+1].getX(), line[j+1].getY());
 			}
@@ -285,10 +368,11 @@ public class Lines extends Generic implements Serializable {
 	public void project(PApplet a, PGraphics p) {
 		
 		ArrayList<Node[]> al = this.getCoordinates(a);
+		Viewport          v  = this.getViewport(p, al);
 		//println("Multiline array list returned " + a.size());
 
-		for (int i = 0; i < al.size(); i++) {
-			Node[] line = al.get(i);
+		for (int i = 0; i < v.shapes.size(); i++) {
+			Node[] line = v.shapes.get(i);
 			for (int j = 0; j < line.length-1; j++) {
 				p.line(line[j].getX(), line[j].getY(), line[j+1].getX(), line[j+1].getY());
 			}
@@ -308,6 +392,21 @@ public class Lines extends Generic implements Serializable {
 				Collections.reverse(Arrays.asList(this.transformedCoordinates.get(i)));
 			}
 			Collections.reverse(this.transformedCoordinates);
+			this.viewport = null;
+		}
+	}
+	
+	/**
+	 * Returns the lines clipped to the part of the sketch
+	 * that can be seen, only clipping them again if the view
+	 * (or the lines) have changed since last time.
+	 */
+	private Viewport getViewport(PGraphics g, ArrayList<Node[]> al) {
+		Viewport v = Viewport.get(g);
+		if (! v.isClipped(this.viewport, al, null)) {
+			v.clipLines(al, this.viewport);
+			this.viewport = v;
 		}
+		return this.viewport;
 	}
 }
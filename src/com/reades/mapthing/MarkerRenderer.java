@@ -0,0 +1,200 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PGraphicsJava2D;
+import processing.core.PImage;
+
+/**
+ * <p>Draws the same icon at every point in a Points
+ * object. Asking Processing to draw an image at a
+ * size other than its own means that it gets rescaled
+ * on every single call, so here we scale the icon once
+ * (and again only if the size or the image changes) and
+ * then stamp the scaled copy on to the sketch.</p>
+ *
+ * <p>With the default (Java2D) renderer each marker is
+ * drawn at its native size, which is a straight copy. With
+ * the P2D/P3D/OpenGL renderers all of the markers are sent
+ * as a single batch of textured quads. In both cases points
+ * that fall outside of the sketch window are skipped.</p>
+ */
+class MarkerRenderer {
+
+	private PImage source;
+	private int    sourceWidth;
+	private int    sourceHeight;
+	private PImage sprite;
+	private int    spriteWidth;
+	private int    spriteHeight;
+
+	/**
+	 * Returns a copy of the image scaled to the requested
+	 * size, re-using the last copy if nothing has changed
+	 * (including the size of the original, which changes if
+	 * it's resized or once an image from requestImage() has
+	 * finished loading). An image that hasn't loaded yet is
+	 * returned as it is, without being remembered.
+	 * @param i the original image
+	 * @param w the width we want to draw it at
+	 * @param h the height we want to draw it at
+	 * @return PImage
+	 */
+	PImage getSprite(PImage i, float w, float h) {
+
+		if (i.width <= 0 || i.height <= 0) {
+			this.sprite = null;
+			return i;
+		}
+
+		int sw = Math.max(1, Math.round(w));
+		int sh = Math.max(1, Math.round(h));
+
+		if (this.sprite == null || this.source != i || this.sourceWidth != i.width || this.sourceHeight != i.height 
+				|| this.spriteWidth != sw || this.spriteHeight != sh) {
+
+			if (i.width == sw && i.height == sh) {
+				this.sprite = i;
+			} else {
+				this.sprite = i.get();
+				this.sprite.resize(sw, sh);
+			}
+
+			this.source       = i;
+			this.sourceWidth  = i.width;
+			this.sourceHeight = i.height;
+			this.spriteWidth  = sw;
+			this.spriteHeight = sh;
+		}
+		return this.sprite;
+	}
+
+	/**
+	 * Draws the icon at each of the nodes on to the
+	 * graphics object. We honour the imageMode so that
+	 * CENTER still puts the icon right on top of the point.
+	 * @param g      the graphics object we're drawing on to
+	 * @param width  the width of the visible area of the sketch
+	 * @param height the height of the visible area of the sketch
+	 * @param c      the transformed coordinates of the points
+	 * @param i      the image to draw at each point
+	 * @param w      the width of the image to draw
+	 * @param h      the height of the image to draw
+	 */
+	void draw(PGraphics g, int width, int height, ArrayList<Node> c, PImage i, float w, float h) {
+
+		PImage s = this.getSprite(i, w, h);
+		if (s.width <= 0 || s.height <= 0) {
+			return; // Still loading
+		}
+
+		float dx = 0f;
+		float dy = 0f;
+		if (g.imageMode == PConstants.CENTER) {
+			dx = -s.width  / 2f;
+			dy = -s.height / 2f;
+		}
+
+		/*
+		 * Work out how big one unit in the sketch is on
+		 * screen (the user may well have called scale()) so
+		 * that we can pad the window when culling and not
+		 * lose markers that are only partly visible.
+		 */
+		float ox = g.screenX(0f, 0f);
+		float oy = g.screenY(0f, 0f);
+		float unit = Math.max(
+				Math.abs(g.screenX(1f, 0f) - ox) + Math.abs(g.screenX(0f, 1f) - ox),
+				Math.abs(g.screenY(1f, 0f) - oy) + Math.abs(g.screenY(0f, 1f) - oy));
+		float margin = Math.max(s.width, s.height) * Math.max(unit, 1f);
+
+		if (g instanceof PGraphicsJava2D) {
+
+			for (int j = 0; j < c.size(); j++) {
+				Node point = c.get(j);
+				float x = point.getX() + dx;
+				float y = point.getY() + dy;
+				if (this.isVisible(g, x, y, width, height, margin)) {
+					g.image(s, x, y);
+				}
+			}
+
+		} else {
+
+			float u = (g.textureMode == PConstants.NORMALIZED) ? 1f : s.width;
+			float v = (g.textureMode == PConstants.NORMALIZED) ? 1f : s.height;
+
+			/*
+			 * Textured shapes pick up the fill and stroke,
+			 * whereas image() only listens to tint, so we
+			 * need to swap these out while we draw and then
+			 * put everything back the way that we found it.
+			 */
+			boolean hadFill   = g.fill;
+			int     fillColor = g.fillColor;
+			boolean hadStroke = g.stroke;
+			int     strokeColor = g.strokeColor;
+
+			g.noStroke();
+			g.fill(g.tint ? g.tintColor : 0xFFFFFFFF);
+
+			g.beginShape(PConstants.QUADS);
+			g.texture(s);
+			for (int j = 0; j < c.size(); j++) {
+				Node point = c.get(j);
+				float x = point.getX() + dx;
+				float y = point.getY() + dy;
+				if (this.isVisible(g, x, y, width, height, margin)) {
+					g.vertex(x,           y,            0f, 0f);
+					g.vertex(x + s.width, y,            u,  0f);
+					g.vertex(x + s.width, y + s.height, u,  v);
+					g.vertex(x,           y + s.height, 0f, v);
+				}
+			}
+			g.endShape();
+
+			if (hadFill) {
+				g.fill(fillColor);
+			} else {
+				g.noFill();
+			}
+			if (hadStroke) {
+				g.stroke(strokeColor);
+			}
+		}
+	}
+
+	private boolean isVisible(PGraphics g, float x, float y, int width, int height, float margin) {
+		float sx = g.screenX(x, y);
+		float sy = g.screenY(x, y);
+		return sx >= -margin && sy >= -margin && sx <= width + margin && sy <= height + margin;
+	}
+}
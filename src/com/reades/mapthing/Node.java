@@ -57,6 +57,17 @@ public class Node implements Serializable {
 	double Y;
 	double Z;
 	
+	// The colour last assigned to this node
+	// by Generic.getColor() and the version of
+	// the colour scale that it came from
+	transient int color;
+	transient int colorVersion;
+	
+	// Likewise for the class assigned by 
+	// Generic.classify()
+	transient int classId;
+	transient int classVersion;
+	
 	/**
 	 * Create a Node object
 	 * @param id a (preferably) unique identifier for the node
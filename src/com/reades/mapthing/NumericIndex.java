@@ -0,0 +1,146 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.BitSet;
+
+/**
+ * <p>A sorted index of the values in one numeric field
+ * of a FeatureTable. Range queries (at least, at most, or
+ * between two values) are answered with a binary search
+ * so they're cheap enough to run every time a slider moves.</p>
+ *
+ * <p>Features whose value is missing or isn't a number
+ * are left out of the index (and so never match).</p>
+ */
+class NumericIndex {
+
+	// values[i] is the value of row rows[i], smallest first
+	private double[] values;
+	private int[]    rows;
+	private int      tableSize;
+
+	NumericIndex(FeatureTable t, String field) {
+
+		int n = t.size();
+		this.tableSize = n;
+
+		double[] v = new double[n];
+		int[]    r = new int[n];
+		int      count = 0;
+
+		for (int row = 0; row < n; row++) {
+			double d = toDouble(t.get(row).getAttribute(field));
+			if (! Double.isNaN(d)) {
+				v[count] = d;
+				r[count] = row;
+				count++;
+			}
+		}
+
+		this.values = new double[count];
+		this.rows   = new int[count];
+
+		IndexSort.sort(this.rows, v, count);
+		for (int i = 0; i < count; i++) {
+			this.values[i] = v[this.rows[i]];
+		}
+		/*
+		 * sort() left rows[] holding positions in v[],
+		 * so map them back on to the table's rows.
+		 */
+		for (int i = 0; i < count; i++) {
+			this.rows[i] = r[this.rows[i]];
+		}
+	}
+
+	/**
+	 * @param min the smallest value to match
+	 * @return The position of the first value that is &gt;= min
+	 */
+	int lowerBound(double min) {
+		int lo = 0;
+		int hi = this.values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.values[mid] < min) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @param max the largest value to match
+	 * @return The position after the last value that is &lt;= max
+	 */
+	int upperBound(double max) {
+		int lo = 0;
+		int hi = this.values.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.values[mid] <= max) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the rows whose values fall between min and
+	 * max (inclusive) as a set of bits, one per row of the
+	 * table.
+	 * @param min the smallest value to match
+	 * @param max the largest value to match
+	 * @return BitSet
+	 */
+	BitSet find(double min, double max) {
+		BitSet mask = new BitSet(this.tableSize);
+		int to = this.upperBound(max);
+		for (int i = this.lowerBound(min); i < to; i++) {
+			mask.set(this.rows[i]);
+		}
+		return mask;
+	}
+
+	static double toDouble(Object o) {
+		if (o instanceof Number) {
+			return ((Number) o).doubleValue();
+		} else if (o != null) {
+			try {
+				return Double.parseDouble(o.toString().trim());
+			} catch (NumberFormatException e) {
+				// Fall through
+			}
+		}
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+/**
+ * <p>A static k-d tree over a set of Nodes that finds the
+ * ones inside a rectangle, in the same way as the KDBush 
+ * index behind supercluster: the points are sorted into
+ * one array, split alternately on x and y, so a search 
+ * only looks at the parts of the array whose half of the 
+ * map overlaps the rectangle. A search takes about log n
+ * steps plus one for each point it finds.</p>
+ *
+ * <p>Splitting stops once a part has no more than 
+ * NODE_SIZE points, which are then just checked one by 
+ * one.</p>
+ */
+class PointTree {
+
+	private static final int NODE_SIZE = 64;
+
+	private Node[]   nodes;
+	private double[] x;
+	private double[] y;
+
+	/**
+	 * @param points the points to index (the array isn't changed)
+	 */
+	PointTree(Node[] points) {
+
+		int n = points.length;
+
+		this.nodes = new Node[n];
+		this.x     = new double[n];
+		this.y     = new double[n];
+		for (int i = 0; i < n; i++) {
+			this.nodes[i] = points[i];
+			this.x[i]     = points[i].X;
+			this.y[i]     = points[i].Y;
+		}
+
+		this.sort(0, n - 1, 0);
+	}
+
+	/**
+	 * Returns the points inside (or on the edge of) a rectangle.
+	 */
+	Node[] range(double minX, double minY, double maxX, double maxY) {
+
+		Node[] found = new Node[16];
+		int    count = 0;
+
+		// Each part still to search is its left, right and axis
+		int[] stack = new int[96];
+		int   top   = 0;
+		stack[top++] = 0;
+		stack[top++] = this.nodes.length - 1;
+		stack[top++] = 0;
+
+		while (top > 0) {
+
+			int axis  = stack[--top];
+			int right = stack[--top];
+			int left  = stack[--top];
+
+			if (right - left <= NODE_SIZE) {
+				for (int i = left; i <= right; i++) {
+					if (this.x[i] >= minX && this.x[i] <= maxX && this.y[i] >= minY && this.y[i] <= maxY) {
+						if (count == found.length) {
+							Node[] f = new Node[count * 2];
+							System.arraycopy(found, 0, f, 0, count);
+							found = f;
+						}
+						found[count++] = this.nodes[i];
+					}
+				}
+				continue;
+			}
+
+			int    m  = (left + right) >> 1;
+			double mx = this.x[m];
+			double my = this.y[m];
+
+			if (mx >= minX && mx <= maxX && my >= minY && my <= maxY) {
+				if (count == found.length) {
+					Node[] f = new Node[count * 2];
+					System.arraycopy(found, 0, f, 0, count);
+					found = f;
+				}
+				found[count++] = this.nodes[m];
+			}
+
+			if (top + 6 > stack.length) {
+				int[] s = new int[stack.length * 2];
+				System.arraycopy(stack, 0, s, 0, top);
+				stack = s;
+			}
+			if ((axis == 0) ? minX <= mx : minY <= my) {
+				stack[top++] = left;
+				stack[top++] = m - 1;
+				stack[top++] = 1 - axis;
+			}
+			if ((axis == 0) ? maxX >= mx : maxY >= my) {
+				stack[top++] = m + 1;
+				stack[top++] = right;
+				stack[top++] = 1 - axis;
+			}
+		}
+
+		Node[] result = new Node[count];
+		System.arraycopy(found, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Puts the median of left..right (on the axis) in the 
+	 * middle, with everything before it no bigger and 
+	 * everything after it no smaller, and then does the 
+	 * same for each half on the other axis.
+	 */
+	private void sort(int left, int right, int axis) {
+
+		if (right - left <= NODE_SIZE) {
+			return;
+		}
+
+		int m = (left + right) >> 1;
+		this.select(m, left, right, (axis == 0) ? this.x : this.y);
+
+		this.sort(left, m - 1, 1 - axis);
+		this.sort(m + 1, right, 1 - axis);
+	}
+
+	/**
+	 * Moves the k-th smallest of left..right into place
+	 * (Hoare's quickselect, with the middle one as the pivot).
+	 */
+	private void select(int k, int left, int right, double[] v) {
+
+		while (right > left) {
+			double pivot = v[(left + right) >> 1];
+			int    i     = left;
+			int    j     = right;
+			while (i <= j) {
+				while (v[i] < pivot) {
+					i++;
+				}
+				while (v[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					this.swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		Node   n  = this.nodes[i];
+		double tx = this.x[i];
+		double ty = this.y[i];
+		this.nodes[i] = this.nodes[j];
+		this.x[i]     = this.x[j];
+		this.y[i]     = this.y[j];
+		this.nodes[j] = n;
+		this.x[j]     = tx;
+		this.y[j]     = ty;
+	}
+}
@@ -27,14 +27,11 @@
 package com.reades.mapthing;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.io.Serializable;
 
 import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureCollections;
 import org.geotools.feature.FeatureIterator;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -62,6 +59,18 @@ public class Points extends Generic implements Serializable {
 	int labelXOffset = 5;
 	int labelYOffset = 5;
 	
+	// Holds the pre-scaled icon used by the
+	// project methods that take a PImage
+	transient MarkerRenderer markers;
+	
+	// The points grouped into clusters at each
+	// scale, built by getClusters()
+	transient ClusterIndex clusters;
+	
+	// The coordinates (x0, y0, x1, y1, ...) of a Points
+	// object that hasn't got any features behind it
+	double[] packed;
+	
 	/**
 	 * Instantiate the GeoLine object with a 
 	 * BoundingBox and String. Depending on 
@@ -85,6 +94,19 @@ public class Points extends Generic implements Serializable {
 		super(b,f);
 	}
 	
+	/**
+	 * Creates a Points object straight from an array of 
+	 * coordinates (x0, y0, x1, y1, ...) without any features,
+	 * as returned by <code>Generic.getCentroidPoints()</code>.
+	 * Pairs of NaNs are skipped.
+	 * @param b      the bounding box of the default viewport
+	 * @param packed the coordinates, in the units of the data
+	 */
+	Points(BoundingBox b, double[] packed) {
+		super(b, (FeatureCollection<SimpleFeatureType,SimpleFeature>) null);
+		this.packed = packed;
+	}
+	
 	/**
 	 * Use to remove duplicates -- by geographical coordinates
 	 * -- from the data you are about to show. You should specify
@@ -92,86 +114,315 @@ public class Points extends Generic implements Serializable {
 	 * the first or last value encountered. This can be very helpful
 	 * when you have a <i>lot</i> of points in your shape file and 
 	 * want to simplify the projection (or remove potential sources
-	 * of confusion in the mapping process).
+	 * of confusion in the mapping process). The points that are
+	 * kept stay in the same order as they were in the data.
 	 * @param useFirst use the first point encountered in the index when de-duping points.
 	 */
 	public void dedupe(boolean useFirst) {
+		this.dedupe(useFirst, false);
+	}
+	
+	/**
+	 * As <code>dedupe(useFirst)</code>, but with the option of
+	 * spreading the work over all of the available processors,
+	 * which is worth doing once you have millions of points. The
+	 * results are exactly the same either way.
+	 * @param useFirst use the first point encountered in the index when de-duping points.
+	 * @param parallel whether to use all of the available processors
+	 */
+	public void dedupe(final boolean useFirst, boolean parallel) {
 		
-		if (super.featureCollection != null) {
-			/*
-			 * Create a new FeatureCollection to hold
-			 * our de-duped data set.
-			 */
-			FeatureCollection<SimpleFeatureType, SimpleFeature> newCollection = FeatureCollections.newCollection("internal");
-
-			/*
-			 * How we'll de-dupe the data set -- since
-			 * we care only about matching coordinates we 
-			 * just check the key string derived from the
-			 * Coordinates object.
-			 */
-			HashMap<String,SimpleFeature> storage = new HashMap<String,SimpleFeature>();
-
-			/*
-			 * featureCollection was instantiated in the superclass
-			 */
-			FeatureIterator<SimpleFeature> iterator = super.featureCollection.features();
-
+		if (this.packed != null) {
+			System.out.println("Points without features (e.g. from getCentroidPoints()) can't be de-duped");
+			return;
+		}
+		
+		if (super.featureCollection == null) {
+			return;
+		}
+		
+		FeatureTable t = this.getFeatureTable();
+		
+		/*
+		 * Pull out the coordinates of every point (as bits, 
+		 * since we're only interested in exact matches) and
+		 * remember which feature each one came from.
+		 */
+		int m = 0;
+		for (int row = 0; row < t.size(); row++) {
+			Geometry theGeom = (Geometry) t.get(row).getDefaultGeometry();
+			if (theGeom != null) {
+				m += theGeom.getNumGeometries();
+			}
+		}
+		
+		final long[] bx    = new long[m];
+		final long[] by    = new long[m];
+		final long[] bz    = new long[m];
+		int[]        owner = new int[m];
+		int          n     = 0;
+		
+		for (int row = 0; row < t.size(); row++) {
+			Geometry theGeom = (Geometry) t.get(row).getDefaultGeometry();
+			if (theGeom == null) {
+				continue;
+			}
+			for (int i = 0; i < theGeom.getNumGeometries(); i++) {
+				Geometry g = theGeom.getGeometryN(i);
+				if (g.getGeometryType().equalsIgnoreCase("point")) {
+					Coordinate c = ((Point) g).getCoordinate();
+					bx[n]    = Double.doubleToLongBits(c.x);
+					by[n]    = Double.doubleToLongBits(c.y);
+					bz[n]    = Double.doubleToLongBits(c.z);
+					owner[n] = row;
+					n++;
+				} else {
+					System.out.println("Have instantiated a Point object but with geometry of type " + g.getGeometryType());
+				}
+			}
+		}
+		
+		final int     count = n;
+		final boolean[] keep = new boolean[count];
+		
+		if (! parallel || count < 2 * Workers.MIN_CHUNK) {
+			
+			CoordinateTable table = new CoordinateTable(bx, by, bz, count);
+			for (int i = 0; i < count; i++) {
+				keep(table, i, CoordinateTable.hash(bx[i], by[i], bz[i]), useFirst, keep);
+			}
+			
+		} else {
+			
+			final int[] hashes = new int[count];
+			Workers.run(count, new Workers.Task() {
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						hashes[i] = CoordinateTable.hash(bx[i], by[i], bz[i]);
+					}
+				}
+			});
+			
 			/*
-			 * Now loop through the geometries to
-			 * set everything up with the correct
-			 * X/Y coordinates
+			 * Split the points into shards on the top bits of
+			 * their hash, so that any duplicates always end up
+			 * in the same shard, and then de-dupe each shard on
+			 * its own. Within a shard the points stay in order,
+			 * so first and last still mean the same thing.
 			 */
-			try {
-				while (iterator.hasNext()) {
-
-					SimpleFeature feature = iterator.next();
-					Geometry      theGeom = (Geometry) feature.getDefaultGeometry();
-
-					for (int i = 0; i < theGeom.getNumGeometries(); i++) {
-
-						//System.out.println("Got geometry " + i);
-						Geometry g = theGeom.getGeometryN(i);
-
-						if (g.getGeometryType().equalsIgnoreCase("point")) {
-
-							Point      p = (Point) g;
-							Coordinate c = p.getCoordinate();
-
-							String location = c.toString();
-
-							if (storage.containsKey(location)) {
-								if (useFirst) {
-									// Do nothing
-									//System.out.println("Skipping because already contains coordinate: " + location);
-								} else {
-									//System.out.println("Replacing last feature because duplicate coordinate: " + location);
-									storage.remove(location);
-									storage.put(location, feature);
-								}
-							} else {
-								storage.put(location, feature);
-							}
-						} else {
-							System.out.println("Have instantiated a Point object but with geometry of type " + g.getGeometryType());
+			int bits = 1;
+			while ((1 << bits) < Workers.getThreadCount() * 4) {
+				bits++;
+			}
+			final int shift  = 32 - bits;
+			final int shards = 1 << bits;
+			
+			final int[] start = new int[shards + 1];
+			for (int i = 0; i < count; i++) {
+				start[(hashes[i] >>> shift) + 1]++;
+			}
+			for (int k = 0; k < shards; k++) {
+				start[k + 1] += start[k];
+			}
+			final int[] order = new int[count];
+			int[]       next  = Arrays.copyOf(start, shards);
+			for (int i = 0; i < count; i++) {
+				order[next[hashes[i] >>> shift]++] = i;
+			}
+			
+			Workers.run(shards, 1, new Workers.Task() {
+				public void run(int from, int to) {
+					for (int k = from; k < to; k++) {
+						CoordinateTable table = new CoordinateTable(bx, by, bz, start[k + 1] - start[k]);
+						for (int j = start[k]; j < start[k + 1]; j++) {
+							keep(table, order[j], hashes[order[j]], useFirst, keep);
 						}
 					}
 				}
-			} finally {
-				if (iterator != null) {
-					iterator.close();
+			});
+		}
+		
+		/*
+		 * And keep every feature that still has at
+		 * least one point, in the original order
+		 */
+		BitSet rows = new BitSet(t.size());
+		for (int i = 0; i < count; i++) {
+			if (keep[i]) {
+				rows.set(owner[i]);
+			}
+		}
+		
+		this.setFeatureCollection(t.collect(rows));
+	}
+	
+	/**
+	 * Merges points that are within tolerance of each other
+	 * (in the units of the data), which is useful when you
+	 * have points that are really in the same place but whose
+	 * coordinates differ slightly (e.g. repeated GPS readings).
+	 * @see Points#merge(double, int, String, String) merge
+	 * @param tolerance how close two points have to be to be merged
+	 * @param useFirst  keep the first point of each group (or the last)
+	 */
+	public void merge(double tolerance, boolean useFirst) {
+		this.merge(tolerance, useFirst ? FIRST : LAST, null, null);
+	}
+	
+	/**
+	 * <p>Merges points that are within tolerance of each other
+	 * (in the units of the data). The points are taken in order
+	 * and each one either joins the closest group within 
+	 * tolerance of it or, if there isn't one, starts a new group
+	 * at its own location. So no point moves further than
+	 * tolerance, although two groups can end up closer than that
+	 * to each other.</p>
+	 * 
+	 * <p>What is kept for each group depends on op:</p>
+	 * <ul>
+	 * <li>FIRST: the first point in the group</li>
+	 * <li>LAST: the last point in the group</li>
+	 * <li>COUNT, SUM or MEAN: the first point in the group, with
+	 * the number of points in the group (or the sum or mean
+	 * of their valueField) stored in outputField, which then
+	 * becomes the value field (a group without any values 
+	 * gets a MEAN of null, and is still drawn)</li>
+	 * </ul>
+	 * 
+	 * <p>The groups are kept in order of their first points. Only
+	 * the first point of a multi-point feature is used, and
+	 * features without a geometry are dropped. The 
+	 * points are found using a grid with cells the size of the
+	 * tolerance, so this takes about the same time per point
+	 * however many points there are.</p>
+	 * 
+	 * <p>Any other op, or a COUNT, SUM or MEAN without an 
+	 * outputField (or a SUM or MEAN without a valueField), 
+	 * prints a message and leaves the points as they are.</p>
+	 * @param tolerance   how close two points have to be to be merged
+	 * @param op          one of FIRST, LAST, COUNT, SUM or MEAN
+	 * @param valueField  the field to SUM or MEAN (otherwise ignored)
+	 * @param outputField the field to store the COUNT, SUM or MEAN in (otherwise ignored)
+	 */
+	public void merge(double tolerance, int op, String valueField, String outputField) {
+		
+		if (this.packed != null) {
+			System.out.println("Points without features (e.g. from getCentroidPoints()) can't be merged");
+			return;
+		}
+		
+		if (op != FIRST && op != LAST && op != COUNT && op != SUM && op != MEAN) {
+			System.out.println("Unknown merge operation " + op + ": use FIRST, LAST, COUNT, SUM or MEAN");
+			return;
+		}
+		if ((op == COUNT || op == SUM || op == MEAN) && outputField == null) {
+			System.out.println("Merging with COUNT, SUM or MEAN needs an outputField to store the result in");
+			return;
+		}
+		if ((op == SUM || op == MEAN) && valueField == null) {
+			System.out.println("Merging with SUM or MEAN needs a valueField to add up");
+			return;
+		}
+		
+		if (super.featureCollection == null) {
+			return;
+		}
+		
+		FeatureTable t = this.getFeatureTable();
+		int          n = t.size();
+		
+		double[] x = new double[n];
+		double[] y = new double[n];
+		
+		for (int row = 0; row < n; row++) {
+			Geometry theGeom = (Geometry) t.get(row).getDefaultGeometry();
+			if (theGeom == null || theGeom.isEmpty()) {
+				x[row] = Double.NaN;
+				y[row] = Double.NaN;
+			} else {
+				Coordinate c = theGeom.getCoordinate();
+				x[row] = c.x;
+				y[row] = c.y;
+			}
+		}
+		
+		/*
+		 * group[row] is the first point of the group that
+		 * each point belongs to; only those go in the grid
+		 */
+		SpatialGrid grid   = new SpatialGrid(x, y, (tolerance > 0) ? tolerance : 1d);
+		int[]       group  = new int[n];
+		int[]       last   = new int[n];
+		int[]       count  = new int[n];
+		double[]    sum    = new double[n];
+		
+		for (int row = 0; row < n; row++) {
+			
+			if (Double.isNaN(x[row]) || Double.isNaN(y[row])) {
+				group[row] = -1;
+				continue;
+			}
+			
+			int g = grid.nearest(x[row], y[row], Math.max(tolerance, 0d));
+			if (g == -1) {
+				g = row;
+				grid.add(row);
+			}
+			group[row] = g;
+			last[g]    = row;
+			
+			if (op == COUNT) {
+				count[g]++;
+			} else if (op == SUM || op == MEAN) {
+				double v = NumericIndex.toDouble(t.get(row).getAttribute(valueField));
+				if (! Double.isNaN(v)) {
+					count[g]++;
+					sum[g] += v;
 				}
 			}
-
-			Set<Entry<String, SimpleFeature>>    set = storage.entrySet();
-			Iterator<Entry<String, SimpleFeature>> i = set.iterator();
-
-			while (i.hasNext()) {
-				Entry<String, SimpleFeature> e = i.next();
-				newCollection.add(e.getValue());
+		}
+		
+		/*
+		 * Now pick out one feature for each group
+		 */
+		int[]    rows   = new int[n];
+		double[] values = new double[n];
+		int      groups = 0;
+		
+		for (int row = 0; row < n; row++) {
+			if (group[row] == row) {
+				rows[groups] = (op == LAST) ? last[row] : row;
+				if (op == COUNT) {
+					values[groups] = count[row];
+				} else if (op == SUM) {
+					values[groups] = sum[row];
+				} else if (op == MEAN) {
+					values[groups] = (count[row] == 0) ? Double.NaN : sum[row] / count[row];
+				}
+				groups++;
 			}
-
-			super.featureCollection = newCollection;
+		}
+		
+		this.setFeatureCollection(t.collect(Arrays.copyOf(rows, groups)));
+		
+		if (op == COUNT || op == SUM || op == MEAN) {
+			this.setValueColumn(outputField, Arrays.copyOf(values, groups));
+			this.setValueField(outputField);
+			this.valuePosition = 0;
+		}
+	}
+	
+	/**
+	 * Adds one point to the table and works out whether it
+	 * (and the point it duplicates, if any) should be kept.
+	 */
+	private static void keep(CoordinateTable table, int i, int hash, boolean useFirst, boolean[] keep) {
+		int e = table.put(i, hash, ! useFirst);
+		if (e == -1) {
+			keep[i] = true;
+		} else if (! useFirst) {
+			keep[e] = false;
+			keep[i] = true;
 		}
 	}
 	
@@ -212,6 +463,8 @@ public class Points extends Generic implements Serializable {
 			
 				transformedCoordinates = new ArrayList<Node>();
 				rawCoordinates         = new ArrayList<Coordinate>();
+				
+				ValueStatistics stats  = this.resetValueStatistics();
 
 				/*
 				 * featureCollection was instantiated in the superclass
@@ -251,6 +504,10 @@ public class Points extends Generic implements Serializable {
 								}
 							}
 						}
+						
+						// A missing value (e.g. an empty polygon's mean) is kept as NaN
+						double value = (theValue == null) ? Double.NaN : theValue.doubleValue();
+						stats.add(value);
 
 						for (int i = 0; i < theGeom.getNumGeometries(); i++) {
 
@@ -270,7 +527,7 @@ public class Points extends Generic implements Serializable {
 											this.map((float) c.x, box.getWest(), box.getEast(), 0f, a.width),
 											this.map((float) c.y, box.getNorth(), box.getSouth(), 0f, a.height),
 											0d,
-											theValue.doubleValue(),
+											value,
 											theName
 									);
 									if (DEBUG == true) {
@@ -291,6 +548,31 @@ public class Points extends Generic implements Serializable {
 						iterator.close();
 					}
 				}
+			} else if (this.packed != null) {
+				
+				transformedCoordinates = new ArrayList<Node>(this.packed.length / 2);
+				rawCoordinates         = new ArrayList<Coordinate>(this.packed.length / 2);
+				
+				this.resetValueStatistics();
+				
+				for (int i = 0; i + 1 < this.packed.length; i += 2) {
+					
+					if (Double.isNaN(this.packed[i]) || Double.isNaN(this.packed[i + 1])) {
+						continue;
+					}
+					
+					Coordinate c = new Coordinate(this.packed[i], this.packed[i + 1]);
+					
+					rawCoordinates.add(c);
+					transformedCoordinates.add(new Node(
+							c.hashCode(),
+							this.map((float) c.x, box.getWest(), box.getEast(), 0f, a.width),
+							this.map((float) c.y, box.getNorth(), box.getSouth(), 0f, a.height),
+							0d,
+							0d,
+							""
+					));
+				}
 			}
 		}
 	}
@@ -366,7 +648,47 @@ public class Points extends Generic implements Serializable {
 		for (int j = 0; j < c.size(); j++) {
 			Node point = c.get(j);
 			//System.out.println("Value for " + point.getName() + " is " + point.getValue());
-			a.g.fill(this.interpolateColor(a, (float) point.getValue(), min, max));
+			a.g.fill(this.getColor(a, point, min, max));
+			a.g.ellipse(point.getX(), point.getY(), w, h);
+		}
+	}
+	
+	/**
+	 * Colours all of the points according to the specified
+	 * colour scale, using the minimum and maximum of the 
+	 * value field as the ends of the scale.
+	 * @see Points#projectValues(PApplet, float, float, float, float) projectValues
+	 * @param a   the PApplet (usually just referred to in a sketch as 'this')
+	 * @param w   the width of the ellipse you want to draw on top of the point
+	 * @param h   the height of the ellipse you want to draw on top of the point
+	 */
+	public void projectValues(PApplet a, float w, float h) {
+		this.transformCoordinates(a);
+		ValueStatistics v = this.getValueStatistics();
+		this.projectValues(a, w, h, (float) v.getMin(), (float) v.getMax());
+	}
+	
+	/**
+	 * <p>Colours all of the points by splitting the value
+	 * field into classes and giving each class its own
+	 * colour from the colour scale. The class each point falls
+	 * into is only worked out again when the classification
+	 * (or the data) changes.</p>
+	 * @see Generic#getClassBreaks(int, int) getClassBreaks
+	 * @param a       the PApplet (usually just referred to in a sketch as 'this')
+	 * @param w       the width of the ellipse you want to draw on top of the point
+	 * @param h       the height of the ellipse you want to draw on top of the point
+	 * @param method  one of QUANTILE, EQUAL_INTERVAL or NATURAL_BREAKS
+	 * @param classes the number of classes
+	 */
+	public void projectClasses(PApplet a, float w, float h, int method, int classes) {
+		
+		ArrayList<Node> c = this.getCoordinates(a);
+		int[] colors = this.getClassColors(a, classes);
+		
+		for (int j = 0; j < c.size(); j++) {
+			Node point = c.get(j);
+			a.g.fill(colors[this.classify(point, method, classes)]);
 			a.g.ellipse(point.getX(), point.getY(), w, h);
 		}
 	}
@@ -402,6 +724,19 @@ public class Points extends Generic implements Serializable {
 		}
 	}
 	
+	/**
+	 * Scales the size of the point according to the value 
+	 * of the data associated with the point, using the 
+	 * maximum of the value field for the maximum radius.
+	 * @see Points#projectAreas(PApplet, float, float) projectAreas
+	 * @param a   the PApplet (usually just referred to in a sketch as 'this')
+	 * @param r   the desired maximum radius
+	 */
+	public void projectAreas(PApplet a, float r) {
+		this.transformCoordinates(a);
+		this.projectAreas(a, r, (float) this.getValueStatistics().getMax());
+	}
+	
 	/**
 	 * <p>Scales the size of the point <i>and</i> the colour according
 	 * to the data value associated with that location.</p>
@@ -428,11 +763,97 @@ public class Points extends Generic implements Serializable {
 			double areaTotal = (point.getValue() / max) * maxArea;
 			float diameter = Math.round(Math.sqrt(areaTotal / Math.PI ));
 			
-			a.g.fill(this.interpolateColor(a, (float) point.getValue(), min, max));
+			a.g.fill(this.getColor(a, point, min, max));
 			a.g.ellipse(point.getX(), point.getY(), diameter, diameter);
 		}
 	}
 	
+	/**
+	 * Scales the size of the point <i>and</i> the colour according
+	 * to the data value associated with that location, using the
+	 * minimum and maximum of the value field.
+	 * @see Points#projectAreasAndValues(PApplet, float, float, float) projectAreasAndValues
+	 * @param a   the PApplet (usually just referred to in a sketch as 'this')
+	 * @param r   the desired maximum radius
+	 */
+	public void projectAreasAndValues(PApplet a, float r) {
+		this.transformCoordinates(a);
+		ValueStatistics v = this.getValueStatistics();
+		this.projectAreasAndValues(a, r, (float) v.getMin(), (float) v.getMax());
+	}
+	
+	/**
+	 * <p>Returns the points grouped into clusters for drawing
+	 * at a given scale: any points that would be closer than
+	 * r pixels to each other on the screen are replaced by a
+	 * single Cluster (with the number of points and their 
+	 * total value), and points that aren't near any others 
+	 * are returned as they are.</p>
+	 * 
+	 * <p>The clusters for every scale are worked out the first
+	 * time this is called (and again if the coordinates are
+	 * transformed again or r changes), so after that this 
+	 * costs nothing.</p>
+	 * @param a     the PApplet (usually just referred to in a sketch as 'this')
+	 * @param scale the scale that the map is being drawn at (i.e. what you passed to scale())
+	 * @param r     the radius of a cluster, in pixels on the screen
+	 * @return An array of Nodes, some of which may be Clusters
+	 */
+	public Node[] getClusters(PApplet a, float scale, float r) {
+		ClusterIndex c = this.getClusterIndex(a, r);
+		return c.getNodes(c.getLevel(scale));
+	}
+	
+	/**
+	 * <p>Draws the points as clusters at a given scale, with 
+	 * the size of each one depending on the number of points
+	 * in it (in the same way as <code>projectAreas</code>, with
+	 * the largest cluster getting the full size r on the 
+	 * screen). Only the clusters on the screen are looked at 
+	 * (each level has its own spatial index), so the time this
+	 * takes depends on how much is on the screen rather than 
+	 * how many points there are.</p>
+	 * @see Points#getClusters(PApplet, float, float) getClusters
+	 * @param a     the PApplet (usually just referred to in a sketch as 'this')
+	 * @param scale the scale that the map is being drawn at (i.e. what you passed to scale())
+	 * @param r     the radius of the largest cluster, in pixels on the screen
+	 */
+	public void projectClusters(PApplet a, float scale, float r) {
+		
+		ClusterIndex c     = this.getClusterIndex(a, r);
+		int          level = c.getLevel(scale);
+		float        max   = c.getMaxCount(level);
+		
+		/*
+		 * Only look up the clusters that can be seen, allowing
+		 * for the biggest one (r on the screen) just off the edge
+		 */
+		Viewport v     = Viewport.get(a.g);
+		float    pad   = Math.max(r, 2) / scale;
+		Node[]   nodes = c.getNodes(level, v.x1 - pad, v.y1 - pad, v.x2 + pad, v.y2 + pad);
+		
+		double maxArea = Math.PI * Math.pow(r,2);
+		
+		for (int j = 0; j < nodes.length; j++) {
+			
+			Node point = nodes[j];
+			
+			double areaTotal = (ClusterIndex.count(point) / max) * maxArea;
+			float  diameter  = Math.max(2, Math.round(Math.sqrt(areaTotal / Math.PI )));
+			
+			// Keep the same size on the screen whatever the scale
+			a.g.ellipse(point.getX(), point.getY(), diameter / scale, diameter / scale);
+		}
+	}
+	
+	private ClusterIndex getClusterIndex(PApplet a, float r) {
+		ArrayList<Node> c = this.getCoordinates(a);
+		if (this.clusters == null || this.clusters.source != c || this.clusters.radius != r) {
+			this.clusters = new ClusterIndex(c, r);
+		}
+		return this.clusters;
+	}
+	
 	/**
 	 * Draws all of the points contained in
 	 * a Points object loaded from a shape file. 
@@ -444,6 +865,11 @@ public class Points extends Generic implements Serializable {
 	 * Note that if you want the image to appear 
 	 * right on top of the coordinates then you will need
 	 * to call "imageMode(CENTER)" in your sketch first. 
+	 * 
+	 * The image is only scaled to w by h once (and then
+	 * again only if you change the size or the image), and
+	 * points that fall outside of the sketch are skipped, so
+	 * this copes with a <i>lot</i> of markers.
 	 * @param a a Processing PApplet object
 	 * @param i a PImage object containing the image we want to draw at each point
 	 * @param w a float indicating the width of the image to draw
@@ -454,10 +880,7 @@ public class Points extends Generic implements Serializable {
 		ArrayList<Node> c = this.getCoordinates(a);
 		//println("Point array list returned " + c.size());
 
-		for (int j = 0; j < c.size(); j++) {
-			Node point = c.get(j);
-			a.g.image(i, point.getX(), point.getY(), w, h);
-		}
+		this.getMarkerRenderer().draw(a.g, a.width, a.height, c, i, w, h);
 	}
 	
 	/**
@@ -513,10 +936,14 @@ public class Points extends Generic implements Serializable {
 		ArrayList<Node> c = this.getCoordinates(a);
 		//println("Point array list returned " + c.size());
 
-		for (int j = 0; j < c.size(); j++) {
-			Node point = c.get(j);
-			p.image(i, point.getX(), point.getY(), w, h);
+		this.getMarkerRenderer().draw(p, p.width, p.height, c, i, w, h);
+	}
+	
+	private MarkerRenderer getMarkerRenderer() {
+		if (this.markers == null) {
+			this.markers = new MarkerRenderer();
 		}
+		return this.markers;
 	}
 	
 	public void labelOffset(int x, int y) {
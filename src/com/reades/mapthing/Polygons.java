@@ -59,17 +59,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.io.Serializable;
 
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureCollections;
 import org.geotools.feature.FeatureIterator;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
-import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.simplify.DouglasPeuckerLineSimplifier;
 import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 
 /**
@@ -90,9 +96,49 @@ public class Polygons extends Generic implements Serializable {
 	
 	private boolean closed = true;
 	
+	// Simplify shared borders once (see setSharedArcSimplification)
+	private boolean sharedArcs = false;
+	
+	// Fill polygons with triangles (see setTriangulation)
+	private boolean triangulate = true;
+	
 	ArrayList<Node[]> transformedCoordinates;
 	ArrayList<Coordinate[]> rawCoordinates;
 	
+	/*
+	 * The holes in each polygon (or null if it hasn't got 
+	 * any) and the triangles that fill it, in the same order
+	 * as the lists above. The triangles are only worked out
+	 * when something is drawn, and are remembered for each 
+	 * level of simplification under levelKey.
+	 */
+	transient ArrayList<Node[][]>       transformedHoles;
+	transient ArrayList<Coordinate[][]> rawHoles;
+	transient ArrayList<Node[]>         transformedTriangles;
+	transient String                    levelKey;
+	
+	// The polygons clipped to what was on screen last time
+	transient Viewport viewport;
+	
+	/*
+	 * Where each feature's polygons start in the lists
+	 * above (so feature i's are from parts[i] up to, but
+	 * not including, parts[i+1]). Used by the views that
+	 * getPolygonsWithId hands out.
+	 */
+	transient int[]   transformedParts;
+	transient int[]   rawParts;
+	transient boolean partsReversed;
+	
+	/*
+	 * Set if this object is a view of one of the features
+	 * of another Polygons object rather than having its own.
+	 */
+	transient Polygons          parent;
+	transient int               parentRow;
+	transient SimpleFeature     parentFeature;
+	transient ArrayList<Node[]> parentCoordinates;
+	
 	/**
 	 * Instantiate the GeoLine object with a 
 	 * BoundingBox and String. Depending on 
@@ -133,6 +179,26 @@ public class Polygons extends Generic implements Serializable {
 		super(b, f);
 	}
 	
+	/**
+	 * Creates a view of one feature of another Polygons
+	 * object. The view draws the parent's (already 
+	 * transformed) polygons so it costs very little, and 
+	 * it only creates a FeatureCollection of its own if 
+	 * something asks for one.
+	 * @param p   the parent Polygons object
+	 * @param row the position of the feature in the parent
+	 * @param f   the feature itself
+	 */
+	private Polygons(Polygons p, int row, SimpleFeature f) {
+		super(p.box, (FeatureCollection<SimpleFeatureType, SimpleFeature>) null);
+		this.parent        = p;
+		this.parentRow     = row;
+		this.parentFeature = f;
+		this.closed        = p.closed;
+		this.triangulate   = p.triangulate;
+		this.DEBUG         = p.DEBUG;
+	}
+	
 	/**
 	 * Called before you can display the polygons
 	 * in a Processing sketch. It simply passes in 
@@ -143,6 +209,11 @@ public class Polygons extends Generic implements Serializable {
 	 */
 	public void transformCoordinates(PApplet a) {
 		
+		if (this.parent != null) {
+			this.transformView(a);
+			return;
+		}
+		
 		if (a.width == this.appletWidth && a.height == this.appletHeight) {
 
 			// Do nothing
@@ -159,6 +230,49 @@ public class Polygons extends Generic implements Serializable {
 			if (super.featureCollection != null) {
 				transformedCoordinates = new ArrayList<Node[]>();
 				rawCoordinates         = new ArrayList<Coordinate[]>();
+				transformedHoles       = new ArrayList<Node[][]>();
+				rawHoles               = new ArrayList<Coordinate[][]>();
+				transformedTriangles   = null;
+				
+				ValueStatistics stats  = this.resetValueStatistics();
+				
+				int[] tp    = new int[64];
+				int[] rp    = new int[64];
+				int   count = 0;
+				
+				/*
+				 * If we've already simplified everything with
+				 * these settings then just use those coordinates
+				 * (we remember the unsimplified ones as well for
+				 * the sake of their triangles)
+				 */
+				String key = "none";
+				if (this.sharedArcs && this.localSimplify > 0) {
+					key = "arcs " + this.localSimplify;
+				} else if (this.visvalingam && this.localSimplify > 0) {
+					key = "vw " + this.localSimplify;
+				} else if (this.localSimplify > 0 || this.globalSimplify > 0) {
+					key = "tps " + this.localSimplify + " " + this.globalSimplify;
+				}
+				
+				SimplificationCache       cache    = this.getSimplificationCache();
+				SimplificationCache.Level cached   = cache.get(key);
+				SimplificationCache.Level computed = new SimplificationCache.Level();
+				int                       part     = 0;
+				
+				computed.holes = new ArrayList<Coordinate[][]>();
+				this.levelKey  = key;
+				
+				ArrayList<Coordinate[]> shared = null;
+				EffectiveAreas          areas  = null;
+				int                     next   = 0;
+				if (cached != null) {
+					// Nothing to work out
+				} else if (this.sharedArcs && this.localSimplify > 0) {
+					shared = this.getSharedRings();
+				} else {
+					areas  = this.getEffectiveAreas(true);
+				}
 
 				// This was instantiated in the superclass
 				FeatureIterator<SimpleFeature> iterator = super.getFeatures();
@@ -172,34 +286,47 @@ public class Polygons extends Generic implements Serializable {
 						SimpleFeature feature = iterator.next();
 						Geometry      theGeom = (Geometry) feature.getDefaultGeometry();
 						SimpleFeatureType def = feature.getFeatureType();
+						
+						if (count + 1 == tp.length) {
+							tp = Arrays.copyOf(tp, tp.length * 2);
+							rp = Arrays.copyOf(rp, rp.length * 2);
+						}
+						tp[count] = transformedCoordinates.size();
+						rp[count] = rawCoordinates.size();
+						count++;
 
-						if (this.globalSimplify > 0) {
+						if (this.globalSimplify > 0 && cached == null && shared == null && areas == null) {
 							theGeom = TopologyPreservingSimplifier.simplify(theGeom, this.globalSimplify);
 						}
 
-						for (int i = 0; i < theGeom.getNumGeometries(); i++) {
+						String theName  = "";
+						Double theValue = 0d;
 
-							//System.out.println("Got geometry " + i);
-							Geometry g = theGeom.getGeometryN(i);
+						if (this.labelPosition > 0) {
+							theName = (String) feature.getAttribute(this.labelPosition);
+						} else if (def.indexOf(this.labelName) != -1) {
+							theName = (String) feature.getAttribute(this.labelName);
+						}
 
-							String theName  = "";
-							Double theValue = 0d;
+						if (this.valuePosition > 0) {
+							theValue = (Double) feature.getAttribute(this.valuePosition);
+						} else if (def.indexOf(this.valueName) != -1) {
+							theValue = (Double) feature.getAttribute(this.valueName);
+						}
+						
+						// A missing value (e.g. an empty polygon's mean) is kept as NaN
+						double value = (theValue == null) ? Double.NaN : theValue.doubleValue();
+						stats.add(value);
 
-							if (this.labelPosition > 0) {
-								theName = (String) feature.getAttribute(this.labelPosition);
-							} else if (def.indexOf(this.labelName) != -1) {
-								theName = (String) feature.getAttribute(this.labelName);
-							}
+						for (int i = 0; i < theGeom.getNumGeometries(); i++) {
 
-							if (this.valuePosition > 0) {
-								theValue = (Double) feature.getAttribute(this.valuePosition);
-							} else if (def.indexOf(this.valueName) != -1) {
-								theValue = (Double) feature.getAttribute(this.valueName);
-							}
+							//System.out.println("Got geometry " + i);
+							Geometry g = theGeom.getGeometryN(i);
 
 							if (g.getGeometryType().equalsIgnoreCase("polygon")) {
 
-								Coordinate[] c = null;
+								Coordinate[]   c = null;
+								Coordinate[][] h = null;
 
 								/*
 							    // get the outer boundary like this 
@@ -208,23 +335,36 @@ public class Polygons extends Generic implements Serializable {
 								
 								Polygon l = (Polygon) g;
 								
-								if (l.getNumInteriorRing() > 0) { 
-									if (this.DEBUG)
-										System.out.println("Polygon has " + l.getNumInteriorRing() + " holes. Holes are impossible to display in Processing");
-									LineString lb = l.getExteriorRing();
+								if (cached != null) {
+									c = cached.parts.get(part);
+									h = cached.holes.get(part);
+								} else {
+									if (shared == null && areas == null && this.localSimplify > 0) {
+										Geometry simple = TopologyPreservingSimplifier.simplify(l, this.localSimplify);
+										if (simple instanceof Polygon) {
+											l = (Polygon) simple;
+										}
+									}
 									
-									if (this.localSimplify > 0) {
-										c = TopologyPreservingSimplifier.simplify(lb, this.localSimplify).getCoordinates();
+									if (shared != null) {
+										c = shared.get(next++);
+									} else if (areas != null) {
+										c = areas.get(next++, this.localSimplify * this.localSimplify, 4);
 									} else {
-										c = lb.getCoordinates();
+										c = l.getExteriorRing().getCoordinates();
 									}
-								} else if (this.localSimplify > 0) {
-									c = TopologyPreservingSimplifier.simplify(l, this.localSimplify).getCoordinates();
-								} else {
-									c = l.getCoordinates();
+									h = this.getHoles(l, shared, next, areas != null);
+									if (shared != null) {
+										next += l.getNumInteriorRing();
+									}
+									
+									computed.parts.add(c);
+									computed.holes.add(h);
 								}
+								part++;
 
 								rawCoordinates.add(c);
+								rawHoles.add(h);
 
 								try {
 									Node[] t = new Node[c.length];
@@ -234,12 +374,31 @@ public class Polygons extends Generic implements Serializable {
 												this.map((float) c[j].x, box.getWest(), box.getEast(), 0f, a.width),
 												this.map((float) c[j].y, box.getNorth(), box.getSouth(), 0f, a.height),
 												0d,
-												theValue.doubleValue(),
+												value,
 												theName
 										);
 										//System.out.println(c[j].x + ", " + box.getWest() + ", " + box.getEast() + ", 0f, " + width + " = " + this.map((float) c[j].x, box.getWest(), box.getEast(), 0f, width));
 									}
 									transformedCoordinates.add(t);
+									
+									Node[][] th = null;
+									if (h != null) {
+										th = new Node[h.length][];
+										for (int k = 0; k < h.length; k++) {
+											th[k] = new Node[h[k].length];
+											for (int j = 0; j < h[k].length; j++) {
+												th[k][j] = new Node(
+														h[k][j].hashCode(),
+														this.map((float) h[k][j].x, box.getWest(), box.getEast(), 0f, a.width),
+														this.map((float) h[k][j].y, box.getNorth(), box.getSouth(), 0f, a.height),
+														0d,
+														value,
+														theName
+												);
+											}
+										}
+									}
+									transformedHoles.add(th);
 								} catch (NullPointerException e2) {
 									System.out.println("NullPointerException " + e2);
 								}
@@ -253,8 +412,426 @@ public class Polygons extends Generic implements Serializable {
 						iterator.close();
 					}
 				}
+				
+				if (cached == null) {
+					cache.put(key, computed);
+				}
+				
+				tp[count] = transformedCoordinates.size();
+				rp[count] = rawCoordinates.size();
+				this.transformedParts = Arrays.copyOf(tp, count + 1);
+				this.rawParts         = Arrays.copyOf(rp, count + 1);
+				this.partsReversed    = false;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Normally each polygon is simplified on its own (see
+	 * <code>setLocalSimplificationThreshold</code>), which means
+	 * that the border between two neighbouring polygons is 
+	 * simplified twice and the two copies don't end up in the
+	 * same place, leaving slivers between them. Turning this
+	 * on works out which stretches of border the polygons 
+	 * share first, so that each one is simplified once and the
+	 * polygons still fit together afterwards.</p>
+	 * 
+	 * <p>This replaces the global simplification threshold 
+	 * (and Visvalingam-Whyatt simplification), and only does
+	 * anything if the local one is set. Like the other 
+	 * simplification settings it does nothing for the 
+	 * polygons returned by getPolygonsWithId.</p>
+	 * @param b whether to simplify shared borders once
+	 */
+	public void setSharedArcSimplification(boolean b) {
+		if (this.simplifiedByParent()) {
+			return;
+		}
+		if (this.sharedArcs != b) {
+			this.sharedArcs   = b;
+			this.appletWidth  = 0;
+			this.appletHeight = 0;
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>The polygons returned by getPolygonsWithId draw this
+	 * object's coordinates, so they're simplified along with
+	 * it and setting their own simplification does nothing.</p>
+	 */
+	public void setLocalSimplificationThreshold(double d) {
+		if (! this.simplifiedByParent()) {
+			super.setLocalSimplificationThreshold(d);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>This does nothing for the polygons returned by 
+	 * getPolygonsWithId (see setLocalSimplificationThreshold).</p>
+	 */
+	public void setGlobalSimplificationThreshold(double d) {
+		if (! this.simplifiedByParent()) {
+			super.setGlobalSimplificationThreshold(d);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>This does nothing for the polygons returned by 
+	 * getPolygonsWithId (see setLocalSimplificationThreshold).</p>
+	 */
+	public void setVisvalingamSimplification(boolean b) {
+		if (! this.simplifiedByParent()) {
+			super.setVisvalingamSimplification(b);
+		}
+	}
+	
+	/**
+	 * Says so (and returns true) if this is a view of another
+	 * Polygons object, which can't be simplified on its own.
+	 */
+	private boolean simplifiedByParent() {
+		if (this.parent != null) {
+			System.out.println("This polygon is simplified along with the Polygons object it came from: set the simplification there instead");
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the rings of every polygon (in the same order
+	 * as transformCoordinates visits them, with each outer
+	 * ring followed by its holes) simplified with their 
+	 * shared borders kept together, so that the hole left
+	 * for an enclave is simplified in the same way as the
+	 * enclave itself.
+	 */
+	private ArrayList<Coordinate[]> getSharedRings() {
+		
+		FeatureTable            t     = this.getFeatureTable();
+		ArrayList<Coordinate[]> rings = new ArrayList<Coordinate[]>();
+		
+		for (int row = 0; row < t.size(); row++) {
+			Geometry theGeom = (Geometry) t.get(row).getDefaultGeometry();
+			if (theGeom == null) {
+				continue;
+			}
+			for (int i = 0; i < theGeom.getNumGeometries(); i++) {
+				Geometry g = theGeom.getGeometryN(i);
+				if (g.getGeometryType().equalsIgnoreCase("polygon")) {
+					Polygon p = (Polygon) g;
+					rings.add(p.getExteriorRing().getCoordinates());
+					for (int h = 0; h < p.getNumInteriorRing(); h++) {
+						rings.add(p.getInteriorRingN(h).getCoordinates());
+					}
+				}
+			}
+		}
+		
+		return ArcTopology.simplify(rings, this.localSimplify);
+	}
+	
+	/**
+	 * <p>Polygons are normally filled by cutting them up into
+	 * triangles, which is done once for each level of 
+	 * simplification and then remembered. This means that 
+	 * holes are left empty and the renderer doesn't have to 
+	 * work out how to fill a complicated outline every time 
+	 * it is drawn.</p>
+	 * 
+	 * <p>Turning this off goes back to drawing each outline 
+	 * as one shape and leaving Processing to fill it (in 
+	 * which case holes are filled in too).</p>
+	 * @param b whether to fill polygons with triangles
+	 */
+	public void setTriangulation(boolean b) {
+		this.triangulate = b;
+	}
+	
+	/**
+	 * Returns the holes in a polygon, or null if it hasn't
+	 * got any. With shared arcs the holes have already been
+	 * simplified along with the outer rings (so that a hole
+	 * still matches the polygon that fills it), starting at
+	 * shared.get(next). If the outer ring has been simplified
+	 * on its own by Visvalingam-Whyatt then the holes are 
+	 * simplified with Douglas-Peucker, since the effective 
+	 * areas only cover the outer rings.
+	 */
+	private Coordinate[][] getHoles(Polygon l, ArrayList<Coordinate[]> shared, int next, boolean simplify) {
+		
+		int n = l.getNumInteriorRing();
+		if (n == 0) {
+			return null;
+		}
+		
+		ArrayList<Coordinate[]> holes = new ArrayList<Coordinate[]>();
+		for (int i = 0; i < n; i++) {
+			Coordinate[] c = (shared != null) ? shared.get(next + i) : l.getInteriorRingN(i).getCoordinates();
+			if (simplify && this.localSimplify > 0) {
+				c = DouglasPeuckerLineSimplifier.simplify(c, this.localSimplify);
+			}
+			if (c.length >= 4) {
+				holes.add(c);
+			}
+		}
+		return (holes.size() == 0) ? null : holes.toArray(new Coordinate[holes.size()][]);
+	}
+	
+	/**
+	 * Returns the triangles that fill each polygon, in the 
+	 * same order as the transformed coordinates, as three 
+	 * Nodes for each triangle. The triangles themselves (as
+	 * positions in the rings) are worked out the first time
+	 * that each level of simplification is drawn and then 
+	 * remembered in the simplification cache, so after that 
+	 * this only has to look up the Nodes.
+	 * @return ArrayList<Node[]> (with a null for any polygon that couldn't be triangulated) or null if the polygons couldn't be matched up
+	 */
+	private ArrayList<Node[]> getTriangles() {
+		
+		if (this.transformedTriangles != null || this.transformedCoordinates == null) {
+			return this.transformedTriangles;
+		}
+		
+		if (this.parent != null) {
+			ArrayList<Node[]> all = this.parent.getTriangles();
+			int[]             tp  = this.parent.transformedParts;
+			if (all == null || tp == null || this.parentRow + 1 >= tp.length) {
+				return null;
+			}
+			int from = tp[this.parentRow];
+			int to   = tp[this.parentRow + 1];
+			ArrayList<Node[]> mine = new ArrayList<Node[]>();
+			if (this.parent.partsReversed) {
+				int n = all.size();
+				mine.addAll(all.subList(n - to, n - from));
+			} else {
+				mine.addAll(all.subList(from, to));
+			}
+			if (this.partsReversed) {
+				Collections.reverse(mine);
+			}
+			this.transformedTriangles = mine;
+			return mine;
+		}
+		
+		int n = this.rawCoordinates.size();
+		if (this.transformedHoles == null || this.transformedCoordinates.size() != n || this.transformedHoles.size() != n) {
+			// Something couldn't be transformed so we can't match them up
+			return null;
+		}
+		
+		SimplificationCache       cache   = this.getSimplificationCache();
+		SimplificationCache.Level level   = cache.get(this.levelKey);
+		ArrayList<int[]>          indices = (level == null) ? null : level.triangles;
+		
+		if (indices == null || indices.size() != n) {
+			indices = new ArrayList<int[]>(n);
+			for (int i = 0; i < n; i++) {
+				/*
+				 * If an outline is in such a bad way that even the
+				 * fallbacks can't cope then it's drawn as one shape
+				 * (see draw) rather than losing everything else
+				 */
+				int[] t = null;
+				try {
+					t = Triangulator.triangulate(this.rawCoordinates.get(i), this.rawHoles.get(i));
+				} catch (RuntimeException e) {
+					System.out.println("Couldn't triangulate polygon " + i + ": " + e);
+				}
+				indices.add(t);
+			}
+			cache.setTriangles(this.levelKey, indices);
+		}
+		
+		/*
+		 * The triangles are in terms of the raw coordinates, 
+		 * so if the polygons have been reversed we have to
+		 * count from the other end (the holes are never 
+		 * reversed)
+		 */
+		ArrayList<Node[]> triangles = new ArrayList<Node[]>(n);
+		for (int i = 0; i < n; i++) {
+			int      r     = this.partsReversed ? n - 1 - i : i;
+			Node[]   outer = this.transformedCoordinates.get(i);
+			Node[][] holes = this.transformedHoles.get(i);
+			int[]    t     = indices.get(r);
+			if (t == null) {
+				triangles.add(null);
+				continue;
+			}
+			Node[]   nodes = new Node[t.length];
+			for (int k = 0; k < t.length; k++) {
+				int j = t[k];
+				if (j < outer.length) {
+					nodes[k] = outer[this.partsReversed ? outer.length - 1 - j : j];
+				} else {
+					j -= outer.length;
+					int h = 0;
+					while (j >= holes[h].length) {
+						j -= holes[h].length;
+						h++;
+					}
+					nodes[k] = holes[h][j];
+				}
+			}
+			triangles.add(nodes);
+		}
+		
+		this.transformedTriangles = triangles;
+		return triangles;
+	}
+	
+	/**
+	 * Returns the polygons clipped to the part of the sketch
+	 * that can be seen, only clipping them again if the view
+	 * (or the polygons) have changed since last time.
+	 */
+	private Viewport getViewport(PGraphics g, ArrayList<Node[]> b) {
+		
+		Viewport          v = Viewport.get(g);
+		ArrayList<Node[]> t = this.triangulate ? this.getTriangles() : null;
+		
+		if (! v.isClipped(this.viewport, b, t)) {
+			v.clipPolygons(b, this.transformedHoles, t, this.viewport);
+			this.viewport = v;
+		}
+		return this.viewport;
+	}
+	
+	/**
+	 * Draws one (clipped) polygon. If it's been triangulated
+	 * then the fill is drawn as triangles (without their 
+	 * edges) and then the outline and the holes are drawn on 
+	 * top (without any fill). Otherwise it's drawn as one 
+	 * shape in the way that it always was.
+	 */
+	private void draw(PGraphics g, Viewport v, int i) {
+		
+		Node[]   shape     = v.shapes.get(i);
+		Node[]   triangles = (v.triangles == null) ? null : v.triangles.get(i);
+		Node[][] holes     = v.holes.get(i);
+		
+		if (triangles == null) {
+			g.beginShape(processing.core.PConstants.POLYGON);
+			for (int j = 0; j < shape.length; j++) {
+				g.vertex(shape[j].getX(), shape[j].getY());
+			}
+			if (this.closed) {
+				g.endShape(processing.core.PConstants.CLOSE);
+			} else {
+				g.endShape();
+			}
+			return;
+		}
+		
+		/*
+		 * Turning the fill and stroke off by hand (rather than
+		 * with noFill/noStroke) means we can turn them back on
+		 * again without having to know what colour they were
+		 */
+		boolean stroke = g.stroke;
+		boolean fill   = g.fill;
+		
+		if (fill) {
+			g.stroke = false;
+			g.beginShape(processing.core.PConstants.TRIANGLES);
+			for (int j = 0; j < triangles.length; j++) {
+				g.vertex(triangles[j].getX(), triangles[j].getY());
+			}
+			g.endShape();
+			g.stroke = stroke;
+		}
+		
+		if (stroke) {
+			g.fill = false;
+			g.beginShape();
+			for (int j = 0; j < shape.length; j++) {
+				g.vertex(shape[j].getX(), shape[j].getY());
+			}
+			if (this.closed) {
+				g.endShape(processing.core.PConstants.CLOSE);
+			} else {
+				g.endShape();
+			}
+			for (int k = 0; holes != null && k < holes.length; k++) {
+				g.beginShape();
+				for (int j = 0; j < holes[k].length; j++) {
+					g.vertex(holes[k][j].getX(), holes[k][j].getY());
+				}
+				g.endShape(processing.core.PConstants.CLOSE);
+			}
+			g.fill = fill;
+		}
+	}
+	
+	/**
+	 * Makes sure that the parent has been transformed and
+	 * then picks out the polygons belonging to this view's
+	 * feature. The Node arrays themselves are shared with
+	 * the parent, not copied.
+	 */
+	private void transformView(PApplet a) {
+		
+		this.parent.transformCoordinates(a);
+		
+		ArrayList<Node[]> all = this.parent.transformedCoordinates;
+		if (all == null || all == this.parentCoordinates) {
+			return;
+		}
+		
+		int[] tp = this.parent.transformedParts;
+		int[] rp = this.parent.rawParts;
+		
+		this.transformedCoordinates = new ArrayList<Node[]>();
+		this.rawCoordinates         = new ArrayList<Coordinate[]>();
+		this.transformedHoles       = new ArrayList<Node[][]>();
+		this.rawHoles               = new ArrayList<Coordinate[][]>();
+		this.transformedTriangles   = null;
+		this.partsReversed          = false;
+		
+		if (tp != null && this.parentRow + 1 < tp.length) {
+			int from = tp[this.parentRow];
+			int to   = tp[this.parentRow + 1];
+			if (this.parent.partsReversed) {
+				int n = all.size();
+				this.transformedCoordinates.addAll(all.subList(n - to, n - from));
+				this.transformedHoles.addAll(this.parent.transformedHoles.subList(n - to, n - from));
+			} else {
+				this.transformedCoordinates.addAll(all.subList(from, to));
+				this.transformedHoles.addAll(this.parent.transformedHoles.subList(from, to));
 			}
+			this.rawCoordinates.addAll(this.parent.rawCoordinates.subList(rp[this.parentRow], rp[this.parentRow + 1]));
+			this.rawHoles.addAll(this.parent.rawHoles.subList(rp[this.parentRow], rp[this.parentRow + 1]));
+		}
+		this.parentCoordinates = all;
+	}
+	
+	/**
+	 * A view only creates its FeatureCollection (holding
+	 * just its own feature) the first time it's needed.
+	 */
+	FeatureCollection<SimpleFeatureType, SimpleFeature> getFeatureCollection() {
+		if (this.featureCollection == null && this.parentFeature != null) {
+			FeatureCollection<SimpleFeatureType, SimpleFeature> collection = FeatureCollections.newCollection();
+			collection.add(this.parentFeature);
+			this.featureCollection = collection;
+		}
+		return this.featureCollection;
+	}
+	
+	/**
+	 * A view uses the parent's statistics so that it is
+	 * coloured on the same scale as the rest of the map.
+	 */
+	public ValueStatistics getValueStatistics() {
+		if (this.parent != null) {
+			return this.parent.getValueStatistics();
 		}
+		return super.getValueStatistics();
 	}
 	
 	/** 
@@ -263,38 +840,186 @@ public class Polygons extends Generic implements Serializable {
 	 * would be useful if you wanted selectively 
 	 * colour or otherwise adjust the display of 
 	 * the polygons based on some external data 
-	 * input.
+	 * input. Each Polygons object in the map is
+	 * a view of one feature of this one: they share
+	 * this object's transformed coordinates, so they
+	 * cost very little and don't need to be 
+	 * transformed again when they're drawn. For the 
+	 * same reason they are simplified in the same way
+	 * as this object: set the simplification here 
+	 * rather than on the individual polygons.
 	 * @return HashMap<Integer,Polygons>
 	 */
 	public HashMap<Integer,Polygons> getPolygonsWithId(String idField) {
 		
-		FeatureIterator<SimpleFeature> f = super.getFeatures();
+		FeatureTable t = this.getFeatureTable();
 		HashMap<Integer,Polygons> h = new HashMap<Integer,Polygons>();
 		
-		// Now loop through the geometries to
-		// set everything up with the correct
-		// X/Y coordinates
-		try {
-			while (f.hasNext()) {
-				
-				SimpleFeature feature = f.next();
+		for (int row = 0; row < t.size(); row++) {
+			
+			SimpleFeature feature = t.get(row);
+			
+			double d = NumericIndex.toDouble(feature.getAttribute(idField));
+			if (Double.isNaN(d)) {
+				continue;
+			}
+			int key = (int) Math.round(d);
+			
+			//System.out.println("Adding key: " + key + " with value " + feature);
+			
+			h.put(key, new Polygons(this, row, feature));
+		}
+		
+		return h;
+	}
+	
+	/**
+	 * <p>Counts, sums or averages the points that fall inside
+	 * each of these polygons and stores the result in a new 
+	 * field (outputField) which then becomes the value field,
+	 * so you can go straight on to <code>projectValues</code>
+	 * or <code>projectClasses</code>. For example, to colour
+	 * wards by the number of bus stops in them:</p>
+	 * 
+	 * <pre>wards.aggregatePoints(stops, null, Polygons.COUNT, "stops");</pre>
+	 * 
+	 * <p>A point on the boundary between two polygons counts
+	 * towards both. Points without a usable value are skipped
+	 * by SUM and MEAN, and polygons without any points get a
+	 * MEAN of null (and a COUNT or SUM of 0). They are still
+	 * drawn, in the first colour of the scale, but are left 
+	 * out of the value statistics.</p>
+	 * 
+	 * <p>The polygons are put into a spatial index (and each
+	 * one is 'prepared' so that the point-in-polygon tests
+	 * are quick) and the points are split up across all of
+	 * the available processors.</p>
+	 * 
+	 * <p>Points without any features behind them (such as 
+	 * those from <code>getCentroidPoints()</code>) have no 
+	 * values, so they can be counted but not summed or 
+	 * averaged.</p>
+	 * @param p           the Points to aggregate
+	 * @param valueField  the field of the points to SUM or MEAN (ignored by COUNT)
+	 * @param op          one of COUNT, SUM or MEAN
+	 * @param outputField the name of the field to store the results in
+	 */
+	public void aggregatePoints(Points p, final String valueField, final int op, String outputField) {
+		
+		final double[] packed = p.packed;
+		if (packed != null && op != COUNT) {
+			System.out.println("Points without features (e.g. from getCentroidPoints()) have no values, so they can only be counted");
+			return;
+		}
+		
+		final FeatureTable polygons = this.getFeatureTable();
+		final FeatureTable points   = (packed != null) ? null : p.getFeatureTable();
+		final int          size     = (packed != null) ? packed.length / 2 : points.size();
+		
+		/*
+		 * Index the polygons' envelopes and
+		 * prepare the polygons themselves
+		 */
+		final STRtree            tree     = new STRtree();
+		final PreparedGeometry[] prepared = new PreparedGeometry[polygons.size()];
+		for (int i = 0; i < polygons.size(); i++) {
+			Geometry g = (Geometry) polygons.get(i).getDefaultGeometry();
+			if (g != null && ! g.isEmpty()) {
+				prepared[i] = PreparedGeometryFactory.prepare(g);
+				/*
+				 * A prepared polygon only builds its indexes the
+				 * first time it's tested (and that isn't thread-
+				 * safe), so test one of its own vertices now 
+				 * before the workers share it. A vertex is on 
+				 * the boundary, so it goes through every step 
+				 * that a point inside would.
+				 */
+				prepared[i].covers(g.getFactory().createPoint(g.getCoordinate()));
+				tree.insert(g.getEnvelopeInternal(), Integer.valueOf(i));
+			}
+		}
+		tree.build();
+		
+		final int[]    count = new int[polygons.size()];
+		final double[] sum   = new double[polygons.size()];
+		
+		final GeometryFactory factory = new GeometryFactory();
+		
+		Workers.run(size, new Workers.Task() {
+			public void run(int from, int to) {
 				
-				Double d = (Double) feature.getAttribute(idField);	
-				int key = (int) Math.round(d);
+				// Each chunk adds up its own points and then 
+				// merges them in at the end
+				int[]    c = new int[count.length];
+				double[] s = new double[sum.length];
 				
-				//System.out.println("Adding key: " + key + " with value " + feature);
+				for (int i = from; i < to; i++) {
+					
+					if (packed != null) {
+						if (! Double.isNaN(packed[2 * i]) && ! Double.isNaN(packed[2 * i + 1])) {
+							Geometry pt = factory.createPoint(new Coordinate(packed[2 * i], packed[2 * i + 1]));
+							add(pt, 1d, tree, prepared, c, s);
+						}
+						continue;
+					}
+					
+					SimpleFeature f = points.get(i);
+					Geometry      g = (Geometry) f.getDefaultGeometry();
+					if (g == null) {
+						continue;
+					}
+					
+					double v = 1d;
+					if (op != COUNT) {
+						v = NumericIndex.toDouble(f.getAttribute(valueField));
+						if (Double.isNaN(v)) {
+							continue;
+						}
+					}
+					
+					for (int j = 0; j < g.getNumGeometries(); j++) {
+						add(g.getGeometryN(j), v, tree, prepared, c, s);
+					}
+				}
 				
-				Polygons g = new Polygons(this.box, feature);
-				h.put(key, g);				
+				synchronized (count) {
+					for (int k = 0; k < c.length; k++) {
+						count[k] += c[k];
+						sum[k]   += s[k];
+					}
+				}
 			}
-		} finally {
-			if (f != null) {
-				f.close();
+		});
+		
+		double[] result = new double[polygons.size()];
+		for (int i = 0; i < result.length; i++) {
+			if (op == COUNT) {
+				result[i] = count[i];
+			} else if (op == SUM) {
+				result[i] = sum[i];
+			} else {
+				result[i] = (count[i] == 0) ? Double.NaN : sum[i] / count[i];
 			}
 		}
 		
-		//return new Polygons(this.box, super.getMultipleFeaturesById("PUBLIC_X_A", Integer.toString(id)));
-		return h;
+		this.setValueColumn(outputField, result);
+		this.setValueField(outputField);
+		this.valuePosition = 0;
+	}
+	
+	/**
+	 * Adds a point (with value v) to the count and sum of
+	 * every polygon that covers it.
+	 */
+	private static void add(Geometry part, double v, STRtree tree, PreparedGeometry[] prepared, int[] c, double[] s) {
+		List<?> hits = tree.query(part.getEnvelopeInternal());
+		for (int k = 0; k < hits.size(); k++) {
+			int row = ((Integer) hits.get(k)).intValue();
+			if (prepared[row].covers(part)) {
+				c[row]++;
+				s[row] += v;
+			}
+		}
 	}
 	
 	/**
@@ -362,19 +1087,11 @@ public class Polygons extends Generic implements Serializable {
 	public void project(PApplet a) {
 		
 		ArrayList<Node[]> b = this.getCoordinates(a);
+		Viewport          v = this.getViewport(a.g, b);
 		//println("Array list returned " + b.size());
 		
-		for (int i = 0; i < b.size(); i++) {
-			Node[] shape = b.get(i);
-			a.g.beginShape(processing.core.PConstants.POLYGON);
-			for (int j = 0; j < shape.length; j++) {
-				a.g.vertex(shape[j].getX(), shape[j].getY());
-			}
-			if (this.closed) {
-				a.g.endShape(processing.core.PConstants.CLOSE);
-			} else {
-				a.g.endShape();
-			}
+		for (int k = 0; k < v.shapes.size(); k++) {
+			this.draw(a.g, v, k);
 		}
 	}
 	
@@ -389,20 +1106,50 @@ public class Polygons extends Generic implements Serializable {
 	public void projectValues(PApplet a, float min, float max) {
 		
 		ArrayList<Node[]> b = this.getCoordinates(a);
+		Viewport          v = this.getViewport(a.g, b);
 		//println("Array list returned " + b.size());
 		
-		for (int i = 0; i < b.size(); i++) {
-			Node[] shape = b.get(i);
-			a.g.fill(this.interpolateColor(a, (float) shape[0].getValue(), min, max));
-			a.g.beginShape(processing.core.PConstants.POLYGON);
-			for (int j = 0; j < shape.length; j++) {
-				a.g.vertex(shape[j].getX(), shape[j].getY());
-			}
-			if (this.closed) {
-				a.g.endShape(processing.core.PConstants.CLOSE);
-			} else {
-				a.g.endShape();
-			}
+		for (int k = 0; k < v.shapes.size(); k++) {
+			Node[] shape = b.get(v.parts[k]);
+			a.g.fill(this.getColor(a, shape[0], min, max));
+			this.draw(a.g, v, k);
+		}
+	}
+	
+	/**
+	 * Apply a color scale to the the polygons using 
+	 * the minimum and maximum of the value field as
+	 * the ends of the scale.
+	 * @see Polygons#projectValues(PApplet, float, float) projectValues
+	 * @param a   a Processing PApplet object
+	 */
+	public void projectValues(PApplet a) {
+		this.transformCoordinates(a);
+		ValueStatistics v = this.getValueStatistics();
+		this.projectValues(a, (float) v.getMin(), (float) v.getMax());
+	}
+	
+	/**
+	 * Colour the polygons by splitting the value field
+	 * into classes and giving each class its own colour 
+	 * from the colour scale. The class each polygon falls
+	 * into is only worked out again when the classification
+	 * (or the data) changes.
+	 * @see Generic#getClassBreaks(int, int) getClassBreaks
+	 * @param a       a Processing PApplet object
+	 * @param method  one of QUANTILE, EQUAL_INTERVAL or NATURAL_BREAKS
+	 * @param classes the number of classes
+	 */
+	public void projectClasses(PApplet a, int method, int classes) {
+		
+		ArrayList<Node[]> b = this.getCoordinates(a);
+		Viewport          v = this.getViewport(a.g, b);
+		int[] colors = this.getClassColors(a, classes);
+		
+		for (int k = 0; k < v.shapes.size(); k++) {
+			Node[] shape = b.get(v.parts[k]);
+			a.g.fill(colors[this.classify(shape[0], method, classes)]);
+			this.draw(a.g, v, k);
 		}
 	}
 	
@@ -427,19 +1174,11 @@ public class Polygons extends Generic implements Serializable {
 	public void project(PApplet a, PGraphics p) {
 		
 		ArrayList<Node[]> b = this.getCoordinates(a);
+		Viewport          v = this.getViewport(p, b);
 		//println("Array list returned " + b.size());
 		
-		for (int i = 0; i < b.size(); i++) {
-			Node[] shape = b.get(i);
-			p.beginShape(processing.core.PConstants.POLYGON);
-			for (int j = 0; j < shape.length; j++) {
-				p.vertex(shape[j].getX(), shape[j].getY());
-			}
-			if (this.closed) {
-				p.endShape(processing.core.PConstants.CLOSE);
-			} else {
-				p.endShape();
-			}
+		for (int k = 0; k < v.shapes.size(); k++) {
+			this.draw(p, v, k);
 		}
 	}
 	
@@ -449,13 +1188,30 @@ public class Polygons extends Generic implements Serializable {
 	 * you have already called transformCoordinates or project
 	 * once (since it only works on the points that have been 
 	 * mapped into the Processing sketch.</p>
+	 * <p>Reversing one of the polygons returned by 
+	 * getPolygonsWithId doesn't affect the object that it
+	 * came from.</p>
 	 */
 	public void reverse() {
-		if (this.transformedCoordinates.size() > 0) {
+		if (this.transformedCoordinates != null && this.transformedCoordinates.size() > 0) {
 			for (int i=0; i < this.transformedCoordinates.size(); i++) {
-				Collections.reverse(Arrays.asList(this.transformedCoordinates.get(i)));
+				Node[] c = this.transformedCoordinates.get(i);
+				if (this.parent != null) {
+					// A view shares its rings with the parent, so reverse a copy
+					c = c.clone();
+					this.transformedCoordinates.set(i, c);
+				}
+				Collections.reverse(Arrays.asList(c));
 			}
 			Collections.reverse(this.transformedCoordinates);
+			if (this.transformedHoles != null) {
+				Collections.reverse(this.transformedHoles);
+			}
+			if (this.transformedTriangles != null) {
+				Collections.reverse(this.transformedTriangles);
+			}
+			this.partsReversed = ! this.partsReversed;
+			this.viewport      = null;
 		}
 	}
 }
@@ -0,0 +1,155 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Remembers the results of the getMultipleFeatures*
+ * queries so that asking the same question again (which
+ * interactive sketches do a lot) doesn't mean running it
+ * again. Results are kept as row numbers in a FeatureTable
+ * (either an int[] or a BitSet) since those are small.</p>
+ *
+ * <p>The least recently used results are thrown away once
+ * the (estimated) size of everything held goes over the
+ * limit. The whole cache is emptied whenever the table it
+ * refers to is replaced, since the row numbers would then
+ * mean something else.</p>
+ */
+class QueryCache {
+
+	// About how many bytes each entry costs on top of its contents
+	private static final int OVERHEAD = 64;
+
+	private LinkedHashMap<String, Object> results = new LinkedHashMap<String, Object>(16, 0.75f, true);
+
+	private FeatureTable table;
+	private long limit;
+	private long size;
+	private int  hits;
+	private int  misses;
+
+	QueryCache(long limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Builds the key for a query from the field, the
+	 * operator and the operands so that the same query
+	 * always ends up with the same key.
+	 */
+	static String key(String field, String op, String... operands) {
+		StringBuffer b = new StringBuffer();
+		b.append(field).append('\u0000').append(op);
+		for (int i = 0; i < operands.length; i++) {
+			b.append('\u0000').append(operands[i]);
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Empties the cache if it was filled from some
+	 * other table than this one.
+	 */
+	synchronized void checkTable(FeatureTable t) {
+		if (this.table != t) {
+			this.clear();
+			this.table = t;
+		}
+	}
+
+	synchronized int[] getRows(String key) {
+		return (int[]) this.get(key);
+	}
+
+	synchronized BitSet getMask(String key) {
+		return (BitSet) this.get(key);
+	}
+
+	synchronized void put(String key, int[] rows) {
+		this.put(key, rows, 4L * rows.length);
+	}
+
+	synchronized void put(String key, BitSet mask) {
+		this.put(key, mask, mask.size() / 8);
+	}
+
+	synchronized void clear() {
+		this.results.clear();
+		this.size = 0;
+	}
+
+	synchronized void setLimit(long bytes) {
+		this.limit = bytes;
+		this.trim();
+	}
+
+	synchronized int getHits() {
+		return this.hits;
+	}
+
+	synchronized int getMisses() {
+		return this.misses;
+	}
+
+	private Object get(String key) {
+		Object o = this.results.get(key);
+		if (o == null) {
+			this.misses++;
+		} else {
+			this.hits++;
+		}
+		return o;
+	}
+
+	private void put(String key, Object o, long bytes) {
+		Object old = this.results.put(key, o);
+		if (old != null) {
+			this.size -= this.sizeOf(key, old);
+		}
+		this.size += OVERHEAD + 2L * key.length() + bytes;
+		this.trim();
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<String, Object>> i = this.results.entrySet().iterator();
+		while (this.size > this.limit && i.hasNext()) {
+			Map.Entry<String, Object> e = i.next();
+			this.size -= this.sizeOf(e.getKey(), e.getValue());
+			i.remove();
+		}
+	}
+
+	private long sizeOf(String key, Object o) {
+		long bytes = (o instanceof int[]) ? 4L * ((int[]) o).length : ((BitSet) o).size() / 8;
+		return OVERHEAD + 2L * key.length() + bytes;
+	}
+}
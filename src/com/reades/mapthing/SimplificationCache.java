@@ -0,0 +1,146 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * <p>Remembers the simplified coordinates of every part of
+ * a Lines or Polygons object for the last few simplification
+ * settings, so that switching back to a threshold that's been
+ * used before doesn't mean simplifying everything again.</p>
+ *
+ * <p>Each entry is keyed on the method and threshold(s) and
+ * holds the coordinates of every part, in the order in which
+ * transformCoordinates visits them, along with the holes and
+ * triangles of each polygon once they've been worked out. As
+ * with the QueryCache the least recently used entries are 
+ * thrown away once the (estimated) size goes over the limit, 
+ * and everything is thrown away when the features change.</p>
+ */
+class SimplificationCache {
+
+	// About how many bytes a Coordinate costs, plus the reference to it
+	private static final int COORDINATE = 48;
+	private static final int OVERHEAD   = 64;
+
+	/**
+	 * Everything we know about the parts at one
+	 * level of simplification.
+	 */
+	static class Level {
+		ArrayList<Coordinate[]>   parts     = new ArrayList<Coordinate[]>();
+		ArrayList<Coordinate[][]> holes;
+		ArrayList<int[]>          triangles;
+	}
+
+	private LinkedHashMap<String, Level> results = new LinkedHashMap<String, Level>(16, 0.75f, true);
+	private LinkedHashMap<String, Long>  sizes   = new LinkedHashMap<String, Long>();
+
+	private FeatureTable table;
+	private long limit;
+	private long size;
+
+	SimplificationCache(long limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Empties the cache if it was filled from some
+	 * other table than this one.
+	 */
+	synchronized void checkTable(FeatureTable t) {
+		if (this.table != t) {
+			this.results.clear();
+			this.sizes.clear();
+			this.size  = 0;
+			this.table = t;
+		}
+	}
+
+	synchronized Level get(String key) {
+		return this.results.get(key);
+	}
+
+	synchronized void put(String key, Level level) {
+		if (this.results.put(key, level) != null) {
+			this.size -= this.sizes.get(key).longValue();
+		}
+		long bytes = sizeOf(key, level);
+		this.sizes.put(key, Long.valueOf(bytes));
+		this.size += bytes;
+		this.trim();
+	}
+
+	/**
+	 * Adds the triangles to an entry, if it's still here.
+	 */
+	synchronized void setTriangles(String key, ArrayList<int[]> triangles) {
+		Level level = this.results.get(key);
+		if (level != null) {
+			level.triangles = triangles;
+			this.put(key, level);
+		}
+	}
+
+	synchronized void setLimit(long bytes) {
+		this.limit = bytes;
+		this.trim();
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<String, Level>> i = this.results.entrySet().iterator();
+		while (this.size > this.limit && i.hasNext()) {
+			Map.Entry<String, Level> e = i.next();
+			this.size -= this.sizes.remove(e.getKey()).longValue();
+			i.remove();
+		}
+	}
+
+	private static long sizeOf(String key, Level level) {
+		long bytes = OVERHEAD + 2L * key.length();
+		for (int i = 0; i < level.parts.size(); i++) {
+			bytes += OVERHEAD + (long) COORDINATE * level.parts.get(i).length;
+		}
+		for (int i = 0; level.holes != null && i < level.holes.size(); i++) {
+			Coordinate[][] h = level.holes.get(i);
+			for (int j = 0; h != null && j < h.length; j++) {
+				bytes += OVERHEAD + (long) COORDINATE * h[j].length;
+			}
+		}
+		for (int i = 0; level.triangles != null && i < level.triangles.size(); i++) {
+			int[] t = level.triangles.get(i);
+			bytes += OVERHEAD + ((t == null) ? 0 : 4L * t.length);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.Arrays;
+
+/**
+ * <p>A grid of square cells over a set of points (held by
+ * the caller as arrays of x and y) that lets us find the
+ * points near a location by looking in the cell that it
+ * falls into and the eight around it. With the cells the
+ * same size as the search distance that's all we need to
+ * look at, so each search takes about the same time however
+ * many points there are.</p>
+ *
+ * <p>Only the cells that contain points are stored, in a
+ * hash table that grows as needed, so the grid can cover
+ * any area.</p>
+ */
+class SpatialGrid {
+
+	private double[] x;
+	private double[] y;
+	private double   size;
+
+	// The cell of each slot, and the first point in it
+	private long[] cellX;
+	private long[] cellY;
+	private int[]  head;
+	private int    cells;
+	private int    mask;
+
+	// The next point in the same cell as each point
+	private int[] next;
+
+	/**
+	 * @param x    the x-coordinates of the points
+	 * @param y    the y-coordinates of the points
+	 * @param size the width (and height) of each cell
+	 */
+	SpatialGrid(double[] x, double[] y, double size) {
+		this.x    = x;
+		this.y    = y;
+		this.size = size;
+		this.next = new int[x.length];
+		this.allocate(1024);
+	}
+
+	/**
+	 * Puts point i into the grid.
+	 */
+	void add(int i) {
+		long cx = this.cell(this.x[i]);
+		long cy = this.cell(this.y[i]);
+		int  s  = this.slot(cx, cy);
+		if (this.head[s] == -1) {
+			this.cellX[s] = cx;
+			this.cellY[s] = cy;
+			this.cells++;
+		}
+		this.next[i] = this.head[s];
+		this.head[s] = i;
+		if (2 * this.cells > this.head.length) {
+			this.grow();
+		}
+	}
+
+	/**
+	 * Returns the closest point in the grid to (px, py) that
+	 * is no more than distance away, or -1 if there isn't one.
+	 * The distance mustn't be more than the size of the cells.
+	 */
+	int nearest(double px, double py, double distance) {
+
+		long   cx   = this.cell(px);
+		long   cy   = this.cell(py);
+		int    best = -1;
+		double d2   = distance * distance;
+
+		for (long gx = cx - 1; gx <= cx + 1; gx++) {
+			for (long gy = cy - 1; gy <= cy + 1; gy++) {
+				int s = this.slot(gx, gy);
+				for (int i = this.head[s]; i != -1; i = this.next[i]) {
+					double dx = this.x[i] - px;
+					double dy = this.y[i] - py;
+					double dd = dx * dx + dy * dy;
+					if (dd < d2 || (dd == d2 && (best == -1 || i < best))) {
+						best = i;
+						d2   = dd;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	private long cell(double v) {
+		return (long) Math.floor(v / this.size);
+	}
+
+	/**
+	 * Returns the slot holding a cell or, if the cell
+	 * isn't in the table, the empty slot where it would go.
+	 */
+	private int slot(long cx, long cy) {
+		long h = cx * 0x9E3779B97F4A7C15L + cy * 0xC2B2AE3D27D4EB4FL;
+		h ^= h >>> 29;
+		for (int s = (int) h & this.mask; ; s = (s + 1) & this.mask) {
+			if (this.head[s] == -1 || (this.cellX[s] == cx && this.cellY[s] == cy)) {
+				return s;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		this.cellX = new long[capacity];
+		this.cellY = new long[capacity];
+		this.head  = new int[capacity];
+		this.mask  = capacity - 1;
+		Arrays.fill(this.head, -1);
+	}
+
+	private void grow() {
+		long[] ox = this.cellX;
+		long[] oy = this.cellY;
+		int[]  oh = this.head;
+		this.allocate(oh.length * 2);
+		for (int s = 0; s < oh.length; s++) {
+			if (oh[s] != -1) {
+				int t = this.slot(ox[s], oy[s]);
+				this.cellX[t] = ox[s];
+				this.cellY[t] = oy[s];
+				this.head[t]  = oh[s];
+			}
+		}
+	}
+}
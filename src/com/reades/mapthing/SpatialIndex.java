@@ -0,0 +1,180 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.AbstractNode;
+import com.vividsolutions.jts.index.strtree.Boundable;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * <p>A spatial index (an STR-tree) of the features in a
+ * FeatureTable so that we can find the ones in a given
+ * area, such as the part of the map that's on screen,
+ * without looking at every feature.</p>
+ *
+ * <p>The tree only knows about the features' envelopes,
+ * so each feature that it returns is then checked against
+ * the area properly (unless its envelope is entirely 
+ * inside the area, in which case it must intersect).</p>
+ *
+ * <p>It can also find the feature nearest to a geometry
+ * by searching the tree from the closest branches outwards 
+ * (which is what newer versions of JTS do in 
+ * STRtree.nearestNeighbour).</p>
+ */
+class SpatialIndex {
+
+	private FeatureTable table;
+	private STRtree      tree;
+
+	/**
+	 * A branch or a feature of the tree waiting to be
+	 * searched, and how far away its envelope is.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		Boundable boundable;
+		double    distance;
+
+		Candidate(Boundable b, double d) {
+			this.boundable = b;
+			this.distance  = d;
+		}
+
+		public int compareTo(Candidate c) {
+			return Double.compare(this.distance, c.distance);
+		}
+	}
+
+	SpatialIndex(FeatureTable t) {
+
+		this.table = t;
+		this.tree  = new STRtree();
+
+		for (int row = 0; row < t.size(); row++) {
+			Geometry g = (Geometry) t.get(row).getDefaultGeometry();
+			if (g != null && ! g.isEmpty()) {
+				this.tree.insert(g.getEnvelopeInternal(), Integer.valueOf(row));
+			}
+		}
+
+		// Build it now, since building it on the first
+		// query isn't safe if there are several at once
+		this.tree.build();
+	}
+
+	/**
+	 * Returns the rows of the features that intersect
+	 * an envelope, in the same order as the table.
+	 * @param e the area to search
+	 * @return int[]
+	 */
+	int[] find(Envelope e) {
+
+		List<?>  hits  = this.tree.query(e);
+		int[]    rows  = new int[hits.size()];
+		int      count = 0;
+		Geometry area  = null;
+
+		for (int i = 0; i < hits.size(); i++) {
+
+			int      row = ((Integer) hits.get(i)).intValue();
+			Geometry g   = (Geometry) this.table.get(row).getDefaultGeometry();
+			Envelope ge  = g.getEnvelopeInternal();
+
+			if (e.contains(ge.getMinX(), ge.getMinY()) && e.contains(ge.getMaxX(), ge.getMaxY())) {
+				rows[count++] = row;
+			} else {
+				if (area == null) {
+					area = g.getFactory().toGeometry(e);
+				}
+				if (g.intersects(area)) {
+					rows[count++] = row;
+				}
+			}
+		}
+
+		rows = Arrays.copyOf(rows, count);
+		Arrays.sort(rows);
+		return rows;
+	}
+
+	/**
+	 * Returns the row of the feature nearest to a geometry, as
+	 * long as it's no further away than maxDistance. If two
+	 * are as near as each other then the first one wins. The
+	 * branches of the tree are searched nearest first, and we
+	 * stop once the nearest one left is further away than the
+	 * nearest feature so far, so this only measures the 
+	 * distance to a few features however big maxDistance is.
+	 * @param g           the geometry to search from
+	 * @param maxDistance the furthest away a feature can be
+	 * @return The row or -1 if there isn't one close enough
+	 */
+	int nearest(Geometry g, double maxDistance) {
+
+		Envelope ge    = g.getEnvelopeInternal();
+		int      best  = -1;
+		double   bestD = maxDistance;
+
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		queue.add(new Candidate(this.tree.getRoot(), 0));
+
+		while (! queue.isEmpty()) {
+
+			Candidate c = queue.poll();
+			if (c.distance > bestD) {
+				break;
+			}
+
+			if (c.boundable instanceof AbstractNode) {
+				List<?> children = ((AbstractNode) c.boundable).getChildBoundables();
+				for (int i = 0; i < children.size(); i++) {
+					Boundable b = (Boundable) children.get(i);
+					double    d = ((Envelope) b.getBounds()).distance(ge);
+					if (d <= bestD) {
+						queue.add(new Candidate(b, d));
+					}
+				}
+			} else {
+				int    row = ((Integer) ((ItemBoundable) c.boundable).getItem()).intValue();
+				double d   = g.distance((Geometry) this.table.get(row).getDefaultGeometry());
+				if (d < bestD || (d == bestD && (best == -1 || row < best))) {
+					best  = row;
+					bestD = d;
+				}
+			}
+		}
+		return best;
+	}
+}
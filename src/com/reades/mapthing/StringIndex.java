@@ -0,0 +1,338 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * <p>A sorted index of the values in one field of a
+ * FeatureTable (as text) so that 'LIKE' patterns can be
+ * answered without testing every feature. The patterns
+ * work in the same way as CQL: % matches any number of
+ * characters, _ matches exactly one, \ escapes the next
+ * character, and the match is case-sensitive.</p>
+ *
+ * <p>A pattern that starts with some text ('Green%') only
+ * has to look at the block of sorted values that start with
+ * that text, which we find with a binary search. A pattern
+ * that starts with a wildcard ('%Green%') uses an index of
+ * the three-letter sequences in each value instead: only the
+ * features that contain every sequence in the pattern are
+ * tested. That index is quite big so it is only built the
+ * first time that it's needed.</p>
+ */
+class StringIndex {
+
+	private static final int GRAM = 3;
+
+	// text[row] is the value of each row, or null if it's missing
+	private String[] text;
+
+	// keys[i] is the value of row rows[i], in sorted order
+	private String[] keys;
+	private int[]    rows;
+
+	private HashMap<String, Postings> grams;
+
+	/**
+	 * The rows that contain one three-letter
+	 * sequence, in order.
+	 */
+	private static class Postings {
+		int[] rows = new int[4];
+		int   size;
+
+		void add(int row) {
+			if (this.size > 0 && this.rows[this.size - 1] == row) {
+				return;
+			}
+			if (this.size == this.rows.length) {
+				int[] r = new int[this.size * 2];
+				System.arraycopy(this.rows, 0, r, 0, this.size);
+				this.rows = r;
+			}
+			this.rows[this.size++] = row;
+		}
+	}
+
+	StringIndex(FeatureTable t, String field) {
+
+		int n = t.size();
+		this.text = new String[n];
+
+		String[] v = new String[n];
+		int[]    r = new int[n];
+		int      count = 0;
+
+		for (int row = 0; row < n; row++) {
+			Object o = t.get(row).getAttribute(field);
+			if (o != null) {
+				this.text[row] = o.toString();
+				v[count] = this.text[row];
+				r[count] = row;
+				count++;
+			}
+		}
+
+		int[] order = new int[count];
+		IndexSort.sort(order, v, count);
+
+		this.keys = new String[count];
+		this.rows = new int[count];
+		for (int i = 0; i < count; i++) {
+			this.keys[i] = v[order[i]];
+			this.rows[i] = r[order[i]];
+		}
+	}
+
+	/**
+	 * Returns the rows whose value matches the pattern
+	 * as a set of bits, one per row of the table.
+	 * @param pattern the 'LIKE' pattern
+	 * @return BitSet
+	 */
+	BitSet find(String pattern) {
+
+		/*
+		 * Split the pattern into the characters to
+		 * match and whether each one is a wildcard
+		 */
+		int       n    = pattern.length();
+		char[]    p    = new char[n];
+		boolean[] wild = new boolean[n];
+		int       len  = 0;
+		boolean   any  = false;
+
+		for (int i = 0; i < n; i++) {
+			char c = pattern.charAt(i);
+			if (c == '\\' && i + 1 < n) {
+				p[len++] = pattern.charAt(++i);
+			} else {
+				wild[len] = (c == '%' || c == '_');
+				any       = any || wild[len];
+				p[len++]  = c;
+			}
+		}
+
+		// The text before the first wildcard
+		StringBuffer prefix = new StringBuffer();
+		for (int i = 0; i < len && ! wild[i]; i++) {
+			prefix.append(p[i]);
+		}
+
+		BitSet mask = new BitSet(this.text.length);
+
+		if (! any) {
+			int from = this.lowerBound(prefix.toString());
+			for (int i = from; i < this.keys.length && this.keys[i].equals(prefix.toString()); i++) {
+				mask.set(this.rows[i]);
+			}
+			return mask;
+		}
+
+		if (prefix.length() > 0) {
+			int from = this.lowerBound(prefix.toString());
+			int to   = this.prefixEnd(prefix.toString(), from);
+			for (int i = from; i < to; i++) {
+				if (matches(this.keys[i], p, wild, len)) {
+					mask.set(this.rows[i]);
+				}
+			}
+			return mask;
+		}
+
+		int[] candidates = this.candidates(p, wild, len);
+		if (candidates == null) {
+			for (int row = 0; row < this.text.length; row++) {
+				if (this.text[row] != null && matches(this.text[row], p, wild, len)) {
+					mask.set(row);
+				}
+			}
+		} else {
+			for (int i = 0; i < candidates.length; i++) {
+				if (matches(this.text[candidates[i]], p, wild, len)) {
+					mask.set(candidates[i]);
+				}
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns the rows containing every three-letter sequence
+	 * in the literal parts of the pattern, or null if the
+	 * pattern doesn't have any (in which case we have to
+	 * test everything).
+	 */
+	private int[] candidates(char[] p, boolean[] wild, int len) {
+
+		ArrayList<String> wanted = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i <= len; i++) {
+			if (i == len || wild[i]) {
+				for (int j = start; j + GRAM <= i; j++) {
+					wanted.add(new String(p, j, GRAM));
+				}
+				start = i + 1;
+			}
+		}
+		if (wanted.size() == 0) {
+			return null;
+		}
+
+		HashMap<String, Postings> g = this.getGrams();
+
+		// Start with the rarest sequence so the lists stay short
+		Postings smallest = null;
+		for (int i = 0; i < wanted.size(); i++) {
+			Postings l = g.get(wanted.get(i));
+			if (l == null) {
+				return new int[0];
+			}
+			if (smallest == null || l.size < smallest.size) {
+				smallest = l;
+			}
+		}
+
+		int[] result = new int[smallest.size];
+		System.arraycopy(smallest.rows, 0, result, 0, smallest.size);
+		int   count  = smallest.size;
+
+		for (int i = 0; i < wanted.size() && count > 0; i++) {
+			Postings l = g.get(wanted.get(i));
+			if (l == smallest) {
+				continue;
+			}
+			int k = 0;
+			int j = 0;
+			for (int m = 0; m < count; m++) {
+				while (j < l.size && l.rows[j] < result[m]) {
+					j++;
+				}
+				if (j < l.size && l.rows[j] == result[m]) {
+					result[k++] = result[m];
+				}
+			}
+			count = k;
+		}
+
+		int[] trimmed = new int[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	private synchronized HashMap<String, Postings> getGrams() {
+		if (this.grams == null) {
+			HashMap<String, Postings> g = new HashMap<String, Postings>();
+			for (int row = 0; row < this.text.length; row++) {
+				String s = this.text[row];
+				if (s == null) {
+					continue;
+				}
+				for (int j = 0; j + GRAM <= s.length(); j++) {
+					String k = s.substring(j, j + GRAM);
+					Postings l = g.get(k);
+					if (l == null) {
+						l = new Postings();
+						g.put(k, l);
+					}
+					l.add(row);
+				}
+			}
+			this.grams = g;
+		}
+		return this.grams;
+	}
+
+	/**
+	 * @return The position of the first key that is &gt;= s
+	 */
+	private int lowerBound(String s) {
+		int lo = 0;
+		int hi = this.keys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.keys[mid].compareTo(s) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return The position after the last key that starts with
+	 * prefix, given that the first one is at from
+	 */
+	private int prefixEnd(String prefix, int from) {
+		int lo = from;
+		int hi = this.keys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (this.keys[mid].startsWith(prefix)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Tests a value against a pattern, backtracking to
+	 * the last % whenever a match fails.
+	 */
+	private static boolean matches(String s, char[] p, boolean[] wild, int len) {
+
+		int i    = 0;
+		int j    = 0;
+		int star = -1;
+		int mark = 0;
+
+		while (i < s.length()) {
+			if (j < len && wild[j] && p[j] == '%') {
+				star = j++;
+				mark = i;
+			} else if (j < len && ((wild[j] && p[j] == '_') || (! wild[j] && p[j] == s.charAt(i)))) {
+				i++;
+				j++;
+			} else if (star != -1) {
+				j = star + 1;
+				i = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while (j < len && wild[j] && p[j] == '%') {
+			j++;
+		}
+		return j == len;
+	}
+}
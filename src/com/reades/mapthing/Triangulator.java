@@ -0,0 +1,554 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * <p>Cuts a polygon (with or without holes) up into
+ * triangles by 'ear clipping': we walk round the outline
+ * cutting off any corner whose triangle has nothing else
+ * inside it until there's nothing left. Holes are joined
+ * on to the outline first by a pair of edges (a 'bridge')
+ * from each hole's leftmost point to a point on the outline
+ * that it can see, so that the polygon becomes one ring.</p>
+ *
+ * <p>The triangles come back as positions in the rings, 
+ * counting the outer ring first and then each hole in 
+ * turn (including the closing point of each ring, which 
+ * is never used itself), so the same triangles can be used 
+ * for the rings however they've been mapped on to the 
+ * screen. This is the same approach as Mapbox's earcut, 
+ * including its fallbacks for outlines that touch or 
+ * cross themselves.</p>
+ */
+class Triangulator {
+
+	// The ring is held as a linked list of points in these arrays
+	private double[] x;
+	private double[] y;
+	private int[]    index;
+	private int[]    prev;
+	private int[]    next;
+	private int      size;
+
+	private int[] triangles = new int[64];
+	private int   count;
+
+	private Triangulator(int capacity) {
+		this.x     = new double[capacity];
+		this.y     = new double[capacity];
+		this.index = new int[capacity];
+		this.prev  = new int[capacity];
+		this.next  = new int[capacity];
+	}
+
+	/**
+	 * Returns the triangles that make up a polygon as three
+	 * positions in the rings for each triangle.
+	 * @param outer the outer ring
+	 * @param holes the holes (may be null)
+	 * @return int[]
+	 */
+	static int[] triangulate(Coordinate[] outer, Coordinate[][] holes) {
+
+		int total = outer.length;
+		int rings = (holes == null) ? 0 : holes.length;
+		for (int h = 0; h < rings; h++) {
+			total += holes[h].length;
+		}
+
+		Triangulator t = new Triangulator(total + 2 * rings);
+
+		int start = t.link(outer, 0, true);
+		if (start == -1 || t.next[start] == t.prev[start]) {
+			return new int[0];
+		}
+
+		if (rings > 0) {
+			start = t.eliminateHoles(holes, outer.length, start);
+		}
+
+		t.clip(start, 0);
+
+		return Arrays.copyOf(t.triangles, t.count);
+	}
+
+	/**
+	 * Links up the points of a ring (except the closing one)
+	 * running anticlockwise for the outer ring and clockwise
+	 * for holes, whichever way they were stored.
+	 * @return One of the points or -1 if there aren't any
+	 */
+	private int link(Coordinate[] c, int offset, boolean outer) {
+
+		int n = c.length;
+		if (n > 1 && c[0].x == c[n - 1].x && c[0].y == c[n - 1].y) {
+			n--;
+		}
+		if (n < 3) {
+			return -1;
+		}
+
+		double area = 0;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			area += (c[j].x - c[i].x) * (c[i].y + c[j].y);
+		}
+
+		int last = -1;
+		if (outer == (area > 0)) {
+			for (int i = 0; i < n; i++) {
+				last = this.insert(offset + i, c[i].x, c[i].y, last);
+			}
+		} else {
+			for (int i = n - 1; i >= 0; i--) {
+				last = this.insert(offset + i, c[i].x, c[i].y, last);
+			}
+		}
+
+		if (last != -1 && this.same(last, this.next[last])) {
+			int p = this.next[last];
+			this.remove(last);
+			last = p;
+		}
+		return last;
+	}
+
+	private int insert(int i, double px, double py, int last) {
+		if (this.size == this.x.length) {
+			this.grow();
+		}
+		int p = this.size++;
+		this.index[p] = i;
+		this.x[p]     = px;
+		this.y[p]     = py;
+		if (last == -1) {
+			this.prev[p] = p;
+			this.next[p] = p;
+		} else {
+			this.next[p]             = this.next[last];
+			this.prev[p]             = last;
+			this.prev[this.next[last]] = p;
+			this.next[last]          = p;
+		}
+		return p;
+	}
+
+	/**
+	 * Makes room for more points: the bridges to the holes
+	 * are allowed for up front, but splitting a ring that 
+	 * crosses itself adds two more points each time.
+	 */
+	private void grow() {
+		int capacity = Math.max(4, this.x.length * 2);
+		this.x     = Arrays.copyOf(this.x, capacity);
+		this.y     = Arrays.copyOf(this.y, capacity);
+		this.index = Arrays.copyOf(this.index, capacity);
+		this.prev  = Arrays.copyOf(this.prev, capacity);
+		this.next  = Arrays.copyOf(this.next, capacity);
+	}
+
+	private void remove(int p) {
+		this.next[this.prev[p]] = this.next[p];
+		this.prev[this.next[p]] = this.prev[p];
+	}
+
+	/**
+	 * Bridges each hole on to the outer ring, working from
+	 * left to right so that each bridge can only cross the
+	 * holes that have already been joined up.
+	 */
+	private int eliminateHoles(Coordinate[][] holes, int offset, int outer) {
+
+		int[]    leftmost = new int[holes.length];
+		double[] key      = new double[holes.length];
+		int      n        = 0;
+
+		for (int h = 0; h < holes.length; h++) {
+			int start = this.link(holes[h], offset, false);
+			offset += holes[h].length;
+			if (start == -1) {
+				continue;
+			}
+			int p = start;
+			int l = start;
+			do {
+				if (this.x[p] < this.x[l] || (this.x[p] == this.x[l] && this.y[p] < this.y[l])) {
+					l = p;
+				}
+				p = this.next[p];
+			} while (p != start);
+			leftmost[n] = l;
+			key[n]      = this.x[l];
+			n++;
+		}
+
+		// Insertion sort since there are rarely many holes
+		for (int i = 1; i < n; i++) {
+			int    l = leftmost[i];
+			double k = key[i];
+			int    j = i - 1;
+			while (j >= 0 && key[j] > k) {
+				leftmost[j + 1] = leftmost[j];
+				key[j + 1]      = key[j];
+				j--;
+			}
+			leftmost[j + 1] = l;
+			key[j + 1]      = k;
+		}
+
+		for (int i = 0; i < n; i++) {
+			int bridge = this.findBridge(leftmost[i], outer);
+			if (bridge != -1) {
+				int b = this.split(bridge, leftmost[i]);
+				this.filter(b, this.next[b]);
+			}
+			outer = this.filter(outer, this.next[outer]);
+		}
+		return outer;
+	}
+
+	/**
+	 * Finds a point on the outer ring that can be joined to
+	 * the leftmost point of a hole without crossing anything
+	 * by casting a ray to the left of the hole.
+	 * @return The point on the outer ring or -1 if there isn't one
+	 */
+	private int findBridge(int hole, int outer) {
+
+		double hx = this.x[hole];
+		double hy = this.y[hole];
+		double qx = Double.NEGATIVE_INFINITY;
+		int    m  = -1;
+
+		int p = outer;
+		do {
+			int q = this.next[p];
+			if (hy <= this.y[p] && hy >= this.y[q] && this.y[q] != this.y[p]) {
+				double ix = this.x[p] + (hy - this.y[p]) * (this.x[q] - this.x[p]) / (this.y[q] - this.y[p]);
+				if (ix <= hx && ix > qx) {
+					qx = ix;
+					if (ix == hx) {
+						if (hy == this.y[p]) {
+							return p;
+						}
+						if (hy == this.y[q]) {
+							return q;
+						}
+					}
+					m = (this.x[p] < this.x[q]) ? p : q;
+				}
+			}
+			p = q;
+		} while (p != outer);
+
+		if (m == -1 || hx == qx) {
+			return m;
+		}
+
+		/*
+		 * Other points of the outer ring might be inside the
+		 * triangle between the hole, the ray's hit and m, in
+		 * which case we want the one closest to the ray
+		 */
+		int    stop   = m;
+		double mx     = this.x[m];
+		double my     = this.y[m];
+		double tanMin = Double.POSITIVE_INFINITY;
+
+		p = m;
+		do {
+			if (hx >= this.x[p] && this.x[p] >= mx && hx != this.x[p] &&
+					inTriangle(hy < my ? hx : qx, hy, mx, my, hy < my ? qx : hx, hy, this.x[p], this.y[p])) {
+				double tan = Math.abs(hy - this.y[p]) / (hx - this.x[p]);
+				if (this.locallyInside(p, hole) && (tan < tanMin || (tan == tanMin && (this.x[p] > this.x[m] || 
+						(this.x[p] == this.x[m] && this.sectorContainsSector(m, p)))))) {
+					m      = p;
+					tanMin = tan;
+				}
+			}
+			p = this.next[p];
+		} while (p != stop);
+
+		return m;
+	}
+
+	private boolean sectorContainsSector(int m, int p) {
+		return this.area(this.prev[m], m, this.prev[p]) < 0 && this.area(this.next[p], m, this.next[m]) < 0;
+	}
+
+	/**
+	 * Joins a and b with a pair of edges (one each way),
+	 * which splits the ring in two if they're on the same
+	 * ring or joins two rings up if they aren't.
+	 * @return The copy of b on the other side of the join
+	 */
+	private int split(int a, int b) {
+
+		int a2 = this.insert(this.index[a], this.x[a], this.y[a], -1);
+		int b2 = this.insert(this.index[b], this.x[b], this.y[b], -1);
+		int an = this.next[a];
+		int bp = this.prev[b];
+
+		this.next[a]  = b;
+		this.prev[b]  = a;
+
+		this.next[a2] = an;
+		this.prev[an] = a2;
+
+		this.next[b2] = a2;
+		this.prev[a2] = b2;
+
+		this.next[bp] = b2;
+		this.prev[b2] = bp;
+
+		return b2;
+	}
+
+	/**
+	 * Cuts off ears until there's nothing left. If we go all
+	 * the way round without finding one then the outline is
+	 * in a bad way: first we try again without any repeated
+	 * or collinear points, then after cutting out any small
+	 * loops where it crosses itself, and finally by splitting
+	 * it into two and starting again on each half.
+	 */
+	private void clip(int ear, int pass) {
+
+		int stop = ear;
+
+		while (this.prev[ear] != this.next[ear]) {
+
+			int p = this.prev[ear];
+			int n = this.next[ear];
+
+			if (this.isEar(ear)) {
+				this.add(this.index[p], this.index[ear], this.index[n]);
+				this.remove(ear);
+				ear  = this.next[n];
+				stop = this.next[n];
+				continue;
+			}
+
+			ear = n;
+
+			if (ear == stop) {
+				if (pass == 0) {
+					this.clip(this.filter(ear, -1), 1);
+				} else if (pass == 1) {
+					this.clip(this.cureLocalIntersections(this.filter(ear, -1)), 2);
+				} else {
+					this.splitClip(ear);
+				}
+				break;
+			}
+		}
+	}
+
+	private boolean isEar(int ear) {
+
+		int a = this.prev[ear];
+		int c = this.next[ear];
+
+		if (this.area(a, ear, c) >= 0) {
+			return false; // Reflex
+		}
+
+		double minX = Math.min(this.x[a], Math.min(this.x[ear], this.x[c]));
+		double minY = Math.min(this.y[a], Math.min(this.y[ear], this.y[c]));
+		double maxX = Math.max(this.x[a], Math.max(this.x[ear], this.x[c]));
+		double maxY = Math.max(this.y[a], Math.max(this.y[ear], this.y[c]));
+
+		int p = this.next[c];
+		while (p != a) {
+			if (this.x[p] >= minX && this.x[p] <= maxX && this.y[p] >= minY && this.y[p] <= maxY &&
+					inTriangle(this.x[a], this.y[a], this.x[ear], this.y[ear], this.x[c], this.y[c], this.x[p], this.y[p]) &&
+					this.area(this.prev[p], p, this.next[p]) >= 0) {
+				return false;
+			}
+			p = this.next[p];
+		}
+		return true;
+	}
+
+	/**
+	 * Removes repeated and collinear points between start
+	 * and end (or all the way round if end is -1).
+	 */
+	private int filter(int start, int end) {
+
+		if (end == -1) {
+			end = start;
+		}
+
+		int     p = start;
+		boolean again;
+		do {
+			again = false;
+			if (this.same(p, this.next[p]) || this.area(this.prev[p], p, this.next[p]) == 0) {
+				this.remove(p);
+				p = end = this.prev[p];
+				if (p == this.next[p]) {
+					break;
+				}
+				again = true;
+			} else {
+				p = this.next[p];
+			}
+		} while (again || p != end);
+
+		return end;
+	}
+
+	private int cureLocalIntersections(int start) {
+
+		int p = start;
+		do {
+			int a = this.prev[p];
+			int b = this.next[this.next[p]];
+
+			if (! this.same(a, b) && this.intersects(a, p, this.next[p], b) && 
+					this.locallyInside(a, b) && this.locallyInside(b, a)) {
+				this.add(this.index[a], this.index[p], this.index[b]);
+				this.remove(this.next[p]);
+				this.remove(p);
+				p = start = b;
+			}
+			p = this.next[p];
+		} while (p != start);
+
+		return this.filter(p, -1);
+	}
+
+	private void splitClip(int start) {
+
+		int a = start;
+		do {
+			int b = this.next[this.next[a]];
+			while (b != this.prev[a]) {
+				if (this.index[a] != this.index[b] && this.isValidDiagonal(a, b)) {
+					int c = this.split(a, b);
+					a = this.filter(a, this.next[a]);
+					c = this.filter(c, this.next[c]);
+					this.clip(a, 0);
+					this.clip(c, 0);
+					return;
+				}
+				b = this.next[b];
+			}
+			a = this.next[a];
+		} while (a != start);
+	}
+
+	private boolean isValidDiagonal(int a, int b) {
+		return this.index[this.next[a]] != this.index[b] && this.index[this.prev[a]] != this.index[b] &&
+				! this.intersectsPolygon(a, b) && this.locallyInside(a, b) && this.locallyInside(b, a) &&
+				this.middleInside(a, b);
+	}
+
+	private boolean intersectsPolygon(int a, int b) {
+		int p = a;
+		do {
+			int q = this.next[p];
+			if (this.index[p] != this.index[a] && this.index[q] != this.index[a] && 
+					this.index[p] != this.index[b] && this.index[q] != this.index[b] &&
+					this.intersects(p, q, a, b)) {
+				return true;
+			}
+			p = q;
+		} while (p != a);
+		return false;
+	}
+
+	private boolean intersects(int p1, int q1, int p2, int q2) {
+		if ((this.same(p1, q1) && this.same(p2, q2)) || (this.same(p1, q2) && this.same(p2, q1))) {
+			return true;
+		}
+		return (this.area(p1, q1, p2) > 0) != (this.area(p1, q1, q2) > 0) &&
+				(this.area(p2, q2, p1) > 0) != (this.area(p2, q2, q1) > 0);
+	}
+
+	/**
+	 * @return Whether the diagonal from a to b starts off 
+	 * inside the polygon
+	 */
+	private boolean locallyInside(int a, int b) {
+		if (this.area(this.prev[a], a, this.next[a]) < 0) {
+			return this.area(a, b, this.next[a]) >= 0 && this.area(a, this.prev[a], b) >= 0;
+		}
+		return this.area(a, b, this.prev[a]) < 0 || this.area(a, this.next[a], b) < 0;
+	}
+
+	/**
+	 * @return Whether the middle of the diagonal from a to b
+	 * is inside the polygon
+	 */
+	private boolean middleInside(int a, int b) {
+		double  px     = (this.x[a] + this.x[b]) / 2;
+		double  py     = (this.y[a] + this.y[b]) / 2;
+		boolean inside = false;
+		int     p      = a;
+		do {
+			int q = this.next[p];
+			if (((this.y[p] > py) != (this.y[q] > py)) && this.y[q] != this.y[p] &&
+					(px < (this.x[q] - this.x[p]) * (py - this.y[p]) / (this.y[q] - this.y[p]) + this.x[p])) {
+				inside = ! inside;
+			}
+			p = q;
+		} while (p != a);
+		return inside;
+	}
+
+	/**
+	 * Twice the signed area of the triangle p, q, r: 
+	 * negative if they turn left (anticlockwise).
+	 */
+	private double area(int p, int q, int r) {
+		return (this.y[q] - this.y[p]) * (this.x[r] - this.x[q]) - (this.x[q] - this.x[p]) * (this.y[r] - this.y[q]);
+	}
+
+	private boolean same(int p, int q) {
+		return this.x[p] == this.x[q] && this.y[p] == this.y[q];
+	}
+
+	private static boolean inTriangle(double ax, double ay, double bx, double by, double cx, double cy, double px, double py) {
+		return (cx - px) * (ay - py) >= (ax - px) * (cy - py) &&
+				(ax - px) * (by - py) >= (bx - px) * (ay - py) &&
+				(bx - px) * (cy - py) >= (cx - px) * (by - py);
+	}
+
+	private void add(int a, int b, int c) {
+		if (this.count + 3 > this.triangles.length) {
+			this.triangles = Arrays.copyOf(this.triangles, this.triangles.length * 2);
+		}
+		this.triangles[this.count++] = a;
+		this.triangles[this.count++] = b;
+		this.triangles[this.count++] = c;
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * <p>Summary statistics for the value field of a
+ * Points, Lines or Polygons object. These are collected
+ * as the coordinates are transformed so you don't need to
+ * scan your data yourself to find the minimum and maximum.</p>
+ *
+ * <p>The minimum, maximum and mean are exact. Quantiles and
+ * class breaks are worked out from a random sample of (at most)
+ * SAMPLE_SIZE values, so on very large data sets they are a
+ * close approximation rather than exact.</p>
+ */
+public class ValueStatistics implements Serializable {
+
+	private static final long serialVersionUID = 4416237093145723716L;
+
+	/**
+	 * The number of values kept for working out
+	 * quantiles and natural breaks.
+	 */
+	public static final int SAMPLE_SIZE = 2048;
+
+	private long   count;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private double sum;
+
+	private double[] sample = new double[SAMPLE_SIZE];
+	private int      sampled;
+	private boolean  sorted;
+
+	// Fixed seed so that the same data always gives the same breaks
+	private Random random = new Random(SAMPLE_SIZE);
+
+	/**
+	 * Add a value to the statistics. NaN values are ignored.
+	 * @param v the value
+	 */
+	public void add(double v) {
+
+		if (Double.isNaN(v)) {
+			return;
+		}
+
+		if (this.count == 0) {
+			this.min = v;
+			this.max = v;
+		} else if (v < this.min) {
+			this.min = v;
+		} else if (v > this.max) {
+			this.max = v;
+		}
+		this.count++;
+		this.sum += v;
+
+		/*
+		 * Reservoir sampling: every value seen so
+		 * far has the same chance of being in the sample.
+		 */
+		if (this.sampled < SAMPLE_SIZE) {
+			this.sample[this.sampled++] = v;
+		} else {
+			long r = (long) (this.random.nextDouble() * this.count);
+			if (r < SAMPLE_SIZE) {
+				this.sample[(int) r] = v;
+			}
+		}
+		this.sorted = false;
+	}
+
+	/**
+	 * @return The number of values seen
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return The smallest value seen (NaN if there were none)
+	 */
+	public double getMin() {
+		return this.min;
+	}
+
+	/**
+	 * @return The largest value seen (NaN if there were none)
+	 */
+	public double getMax() {
+		return this.max;
+	}
+
+	/**
+	 * @return The total of all of the values seen
+	 */
+	public double getSum() {
+		return this.sum;
+	}
+
+	/**
+	 * @return The mean of the values seen (NaN if there were none)
+	 */
+	public double getMean() {
+		return (this.count == 0) ? Double.NaN : this.sum / this.count;
+	}
+
+	/**
+	 * Returns the (approximate) value below which
+	 * the given fraction of the values fall. So 0.5
+	 * gives you the median.
+	 * @param q a fraction between 0 and 1
+	 * @return The quantile (NaN if there were no values)
+	 */
+	public double getQuantile(double q) {
+
+		if (this.sampled == 0) {
+			return Double.NaN;
+		} else if (q <= 0) {
+			return this.min;
+		} else if (q >= 1) {
+			return this.max;
+		}
+
+		double[] s = this.getSortedSample();
+		double pos = q * (s.length - 1);
+		int    i   = (int) Math.floor(pos);
+		double f   = pos - i;
+
+		if (i + 1 < s.length) {
+			return s[i] + f * (s[i+1] - s[i]);
+		} else {
+			return s[i];
+		}
+	}
+
+	/**
+	 * <p>Returns the class breaks for the values using one of
+	 * Generic.QUANTILE, Generic.EQUAL_INTERVAL or Generic.NATURAL_BREAKS.
+	 * The array has one more entry than the number of classes: the
+	 * first is the minimum, the last is the maximum, and class
+	 * <i>i</i> runs from breaks[i] to breaks[i+1].</p>
+	 * @param method  the classification method
+	 * @param classes the number of classes
+	 * @return double[]
+	 */
+	public double[] getBreaks(int method, int classes) {
+
+		classes = Math.max(1, classes);
+		double[] breaks = new double[classes + 1];
+
+		if (method == Generic.NATURAL_BREAKS && this.sampled > classes) {
+			return this.getNaturalBreaks(classes);
+		}
+
+		for (int i = 0; i <= classes; i++) {
+			if (method == Generic.QUANTILE) {
+				breaks[i] = this.getQuantile((double) i / classes);
+			} else {
+				breaks[i] = this.min + (this.max - this.min) * i / classes;
+			}
+		}
+		breaks[0]       = this.min;
+		breaks[classes] = this.max;
+		return breaks;
+	}
+
+	/**
+	 * Returns the class that a value falls into given
+	 * a set of breaks from getBreaks(). Values outside of
+	 * the range go in to the first or last class, and
+	 * missing (NaN) values go in to the first.
+	 * @param v      the value
+	 * @param breaks the class breaks
+	 * @return The class number (from 0)
+	 */
+	public static int getClass(double v, double[] breaks) {
+
+		int last = breaks.length - 2;
+		if (last <= 0 || v <= breaks[1] || Double.isNaN(v)) {
+			return 0;
+		} else if (v > breaks[last]) {
+			return last;
+		}
+
+		// Find the first upper bound that is >= v
+		int lo = 1;
+		int hi = last;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (breaks[mid + 1] < v) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private double[] getSortedSample() {
+		if (! this.sorted) {
+			Arrays.sort(this.sample, 0, this.sampled);
+			this.sorted = true;
+		}
+		if (this.sampled == this.sample.length) {
+			return this.sample;
+		} else {
+			return Arrays.copyOf(this.sample, this.sampled);
+		}
+	}
+
+	/**
+	 * Jenks' natural breaks on the (sorted) sample, which
+	 * minimises the variance within each class.
+	 * @see <a href="http://en.wikipedia.org/wiki/Jenks_natural_breaks_optimization">Wikipedia on Jenks natural breaks</a>
+	 */
+	private double[] getNaturalBreaks(int classes) {
+
+		double[] data = this.getSortedSample();
+		int n = data.length;
+
+		// lower[l][m] is the first value of the last class when
+		// the first l values are split into m classes
+		int[][]    lower    = new int[n + 1][classes + 1];
+		double[][] variance = new double[n + 1][classes + 1];
+
+		for (int i = 1; i <= classes; i++) {
+			lower[1][i] = 1;
+			for (int j = 2; j <= n; j++) {
+				variance[j][i] = Double.MAX_VALUE;
+			}
+		}
+
+		for (int l = 2; l <= n; l++) {
+
+			double s1 = 0d;
+			double s2 = 0d;
+			double w  = 0d;
+			double v  = 0d;
+
+			for (int m = 1; m <= l; m++) {
+
+				int    i3  = l - m + 1;
+				double val = data[i3 - 1];
+
+				s2 += val * val;
+				s1 += val;
+				w  += 1;
+				v   = s2 - (s1 * s1) / w;
+
+				int i4 = i3 - 1;
+				if (i4 != 0) {
+					for (int j = 2; j <= classes; j++) {
+						if (variance[l][j] >= (v + variance[i4][j - 1])) {
+							lower[l][j]    = i3;
+							variance[l][j] = v + variance[i4][j - 1];
+						}
+					}
+				}
+			}
+			lower[l][1]    = 1;
+			variance[l][1] = v;
+		}
+
+		double[] breaks = new double[classes + 1];
+		breaks[classes] = this.max;
+		breaks[0]       = this.min;
+
+		int k = n;
+		for (int j = classes; j >= 2; j--) {
+			int id = lower[k][j] - 2;
+			breaks[j - 1] = data[Math.max(0, id)];
+			k = lower[k][j] - 1;
+		}
+		return breaks;
+	}
+}
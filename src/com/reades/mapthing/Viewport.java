@@ -0,0 +1,443 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+
+import processing.core.PGraphics;
+
+/**
+ * <p>The part of the sketch that can actually be seen (in
+ * the same coordinates as the transformed Nodes, so taking 
+ * into account any translate or scale in effect) and the
+ * polygons or lines clipped to it. When you zoom in on a 
+ * big map most of each coastline or river is off the 
+ * screen, and this means we only draw the part that isn't.</p>
+ *
+ * <p>Polygons are clipped with the Sutherland-Hodgman 
+ * algorithm and lines with Liang-Barsky. Anything that is
+ * completely inside is used as it is and anything that is 
+ * completely outside is left out, so only the shapes that 
+ * cross the edge are actually cut. Lines and Polygons keep 
+ * the last Viewport and only clip again when the view (or 
+ * the data) changes, so a sketch that isn't moving does 
+ * none of this work.</p>
+ */
+class Viewport {
+
+	/*
+	 * How far (in pixels) outside the screen we clip, so
+	 * that the edges we add along the cut are never seen
+	 */
+	static final float MARGIN = 8f;
+
+	final float x1;
+	final float y1;
+	final float x2;
+	final float y2;
+
+	// What was clipped, so that we know when to do it again
+	Object source;
+	Object triangleSource;
+
+	// x1, y1, x2, y2 of each part of the source
+	float[] bounds;
+
+	// parts[k] is the part that shapes[k] was cut from
+	int[]               parts;
+	ArrayList<Node[]>   shapes;
+	ArrayList<Node[][]> holes;
+	ArrayList<Node[]>   triangles;
+
+	private Viewport(float x1, float y1, float x2, float y2) {
+		this.x1 = x1;
+		this.y1 = y1;
+		this.x2 = x2;
+		this.y2 = y2;
+	}
+
+	/**
+	 * Works out what can be seen by mapping the corners of
+	 * the screen back through the current transformation.
+	 * If it rotates things then we use the box around the 
+	 * rotated screen.
+	 * @param g the graphics object that is being drawn on
+	 * @return Viewport
+	 */
+	static Viewport get(PGraphics g) {
+
+		float ox = g.screenX(0, 0);
+		float oy = g.screenY(0, 0);
+		float ax = g.screenX(1, 0) - ox;
+		float ay = g.screenY(1, 0) - oy;
+		float bx = g.screenX(0, 1) - ox;
+		float by = g.screenY(0, 1) - oy;
+		float d  = ax * by - bx * ay;
+
+		if (d == 0 || Float.isNaN(d) || Float.isInfinite(d)) {
+			// Nothing can be seen
+			return new Viewport(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+		}
+
+		float[] sx = {-MARGIN, g.width + MARGIN, -MARGIN, g.width + MARGIN};
+		float[] sy = {-MARGIN, -MARGIN, g.height + MARGIN, g.height + MARGIN};
+
+		float minX = Float.POSITIVE_INFINITY;
+		float minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY;
+		float maxY = Float.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < 4; i++) {
+			float dx = sx[i] - ox;
+			float dy = sy[i] - oy;
+			float x  = (dx * by - bx * dy) / d;
+			float y  = (ax * dy - dx * ay) / d;
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+		return new Viewport(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * @return Whether this view has already been clipped
+	 * from the same data
+	 */
+	boolean isClipped(Viewport v, Object source, Object triangleSource) {
+		return v != null && v.x1 == this.x1 && v.y1 == this.y1 && v.x2 == this.x2 && v.y2 == this.y2 && 
+				v.source == source && v.triangleSource == triangleSource;
+	}
+
+	/**
+	 * Clips polygons (with their holes and triangles, either
+	 * of which can be null) to the view.
+	 * @param shapes    the outer rings of the polygons
+	 * @param holes     the holes in each polygon
+	 * @param triangles the triangles filling each polygon
+	 * @param last      the last Viewport, whose bounds we can use if the shapes haven't changed
+	 */
+	void clipPolygons(ArrayList<Node[]> shapes, ArrayList<Node[][]> holes, ArrayList<Node[]> triangles, Viewport last) {
+
+		this.source         = shapes;
+		this.triangleSource = triangles;
+		this.bounds         = (last != null && last.source == shapes) ? last.bounds : getBounds(shapes);
+
+		int   n     = shapes.size();
+		int[] parts = new int[n];
+		int   count = 0;
+
+		this.shapes    = new ArrayList<Node[]>();
+		this.holes     = new ArrayList<Node[][]>();
+		this.triangles = (triangles == null) ? null : new ArrayList<Node[]>();
+
+		for (int i = 0; i < n; i++) {
+
+			Node[][] h = (holes == null) ? null : holes.get(i);
+			Node[]   t = (triangles == null) ? null : triangles.get(i);
+
+			if (this.isOutside(i)) {
+				continue;
+			}
+
+			if (! this.isInside(i)) {
+				Node[] c = this.clipRing(shapes.get(i));
+				if (c == null) {
+					continue;
+				}
+				if (h != null) {
+					ArrayList<Node[]> kept = new ArrayList<Node[]>();
+					for (int k = 0; k < h.length; k++) {
+						Node[] ch = this.clipRing(h[k]);
+						if (ch != null) {
+							kept.add(ch);
+						}
+					}
+					h = (kept.size() == 0) ? null : kept.toArray(new Node[kept.size()][]);
+				}
+				if (t != null) {
+					t = this.cull(t);
+				}
+				this.shapes.add(c);
+			} else {
+				this.shapes.add(shapes.get(i));
+			}
+
+			this.holes.add(h);
+			if (this.triangles != null) {
+				this.triangles.add(t);
+			}
+			parts[count++] = i;
+		}
+
+		this.parts = new int[count];
+		System.arraycopy(parts, 0, this.parts, 0, count);
+	}
+
+	/**
+	 * Clips lines to the view. A line that goes out of the
+	 * view and comes back in again ends up in two pieces.
+	 * @param lines the lines
+	 * @param last  the last Viewport, whose bounds we can use if the lines haven't changed
+	 */
+	void clipLines(ArrayList<Node[]> lines, Viewport last) {
+
+		this.source = lines;
+		this.bounds = (last != null && last.source == lines) ? last.bounds : getBounds(lines);
+
+		int[] parts = new int[16];
+		int   count = 0;
+
+		this.shapes = new ArrayList<Node[]>();
+
+		for (int i = 0; i < lines.size(); i++) {
+
+			if (this.isOutside(i)) {
+				continue;
+			}
+
+			int from = this.shapes.size();
+			if (this.isInside(i)) {
+				this.shapes.add(lines.get(i));
+			} else {
+				this.clipLine(lines.get(i), this.shapes);
+			}
+
+			for (int k = from; k < this.shapes.size(); k++) {
+				if (count == parts.length) {
+					int[] p = new int[count * 2];
+					System.arraycopy(parts, 0, p, 0, count);
+					parts = p;
+				}
+				parts[count++] = i;
+			}
+		}
+
+		this.parts = new int[count];
+		System.arraycopy(parts, 0, this.parts, 0, count);
+	}
+
+	private boolean isInside(int i) {
+		return this.bounds[4 * i] >= this.x1 && this.bounds[4 * i + 2] <= this.x2 &&
+				this.bounds[4 * i + 1] >= this.y1 && this.bounds[4 * i + 3] <= this.y2;
+	}
+
+	private boolean isOutside(int i) {
+		return this.bounds[4 * i] > this.x2 || this.bounds[4 * i + 2] < this.x1 ||
+				this.bounds[4 * i + 1] > this.y2 || this.bounds[4 * i + 3] < this.y1;
+	}
+
+	private static float[] getBounds(ArrayList<Node[]> shapes) {
+		float[] b = new float[4 * shapes.size()];
+		for (int i = 0; i < shapes.size(); i++) {
+			Node[] s = shapes.get(i);
+			float minX = Float.POSITIVE_INFINITY;
+			float minY = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY;
+			float maxY = Float.NEGATIVE_INFINITY;
+			for (int j = 0; j < s.length; j++) {
+				minX = Math.min(minX, s[j].getX());
+				minY = Math.min(minY, s[j].getY());
+				maxX = Math.max(maxX, s[j].getX());
+				maxY = Math.max(maxY, s[j].getY());
+			}
+			b[4 * i]     = minX;
+			b[4 * i + 1] = minY;
+			b[4 * i + 2] = maxX;
+			b[4 * i + 3] = maxY;
+		}
+		return b;
+	}
+
+	/**
+	 * Clips a ring against each edge of the view in turn
+	 * (Sutherland-Hodgman). Since the view is a rectangle
+	 * this works for any ring, even if it isn't convex,
+	 * though a ring that goes out and back in again ends 
+	 * up joined along the edge of the view (off the screen).
+	 * @return The clipped ring or null if none of it is left
+	 */
+	Node[] clipRing(Node[] ring) {
+
+		ArrayList<Node> in = new ArrayList<Node>(ring.length);
+		for (int j = 0; j < ring.length; j++) {
+			in.add(ring[j]);
+		}
+
+		for (int edge = 0; edge < 4 && in.size() > 0; edge++) {
+			ArrayList<Node> out = new ArrayList<Node>(in.size() + 4);
+			Node s = in.get(in.size() - 1);
+			for (int j = 0; j < in.size(); j++) {
+				Node e = in.get(j);
+				boolean eIn = this.isInside(e, edge);
+				boolean sIn = this.isInside(s, edge);
+				if (eIn) {
+					if (! sIn) {
+						out.add(this.cross(s, e, edge));
+					}
+					out.add(e);
+				} else if (sIn) {
+					out.add(this.cross(s, e, edge));
+				}
+				s = e;
+			}
+			in = out;
+		}
+
+		return (in.size() < 3) ? null : in.toArray(new Node[in.size()]);
+	}
+
+	private boolean isInside(Node n, int edge) {
+		switch (edge) {
+			case 0:  return n.getX() >= this.x1;
+			case 1:  return n.getX() <= this.x2;
+			case 2:  return n.getY() >= this.y1;
+			default: return n.getY() <= this.y2;
+		}
+	}
+
+	/**
+	 * @return The point where s to e crosses an edge of the view
+	 */
+	private Node cross(Node s, Node e, int edge) {
+		float sx = s.getX();
+		float sy = s.getY();
+		float dx = e.getX() - sx;
+		float dy = e.getY() - sy;
+		float t;
+		switch (edge) {
+			case 0:  t = (this.x1 - sx) / dx; break;
+			case 1:  t = (this.x2 - sx) / dx; break;
+			case 2:  t = (this.y1 - sy) / dy; break;
+			default: t = (this.y2 - sy) / dy; break;
+		}
+		return this.at(s, dx, dy, t);
+	}
+
+	private Node at(Node s, float dx, float dy, float t) {
+		return new Node(s.getId(), s.getX() + t * dx, s.getY() + t * dy, 0d, s.getValue(), s.getName());
+	}
+
+	/**
+	 * Clips each segment of a line to the view (Liang-Barsky)
+	 * and adds the pieces that can be seen to out.
+	 */
+	void clipLine(Node[] line, ArrayList<Node[]> out) {
+
+		ArrayList<Node> piece = null;
+
+		for (int j = 0; j + 1 < line.length; j++) {
+
+			Node  p  = line[j];
+			Node  q  = line[j + 1];
+			float dx = q.getX() - p.getX();
+			float dy = q.getY() - p.getY();
+
+			/*
+			 * Each edge of the view cuts the segment at some t 
+			 * from 0 (at p) to 1 (at q): t0 is where it comes in
+			 * and t1 is where it goes out
+			 */
+			float[] t = {0f, 1f};
+			boolean visible = 
+				   limit(-dx, p.getX() - this.x1, t)
+				&& limit( dx, this.x2 - p.getX(), t)
+				&& limit(-dy, p.getY() - this.y1, t)
+				&& limit( dy, this.y2 - p.getY(), t);
+
+			if (! visible) {
+				piece = flush(piece, out);
+				continue;
+			}
+
+			if (piece != null && t[0] > 0) {
+				piece = flush(piece, out);
+			}
+			if (piece == null) {
+				piece = new ArrayList<Node>();
+				piece.add((t[0] > 0) ? this.at(p, dx, dy, t[0]) : p);
+			}
+			piece.add((t[1] < 1) ? this.at(p, dx, dy, t[1]) : q);
+			if (t[1] < 1) {
+				piece = flush(piece, out);
+			}
+		}
+		flush(piece, out);
+	}
+
+	private static boolean limit(float p, float q, float[] t) {
+		if (p == 0) {
+			return q >= 0;
+		}
+		float r = q / p;
+		if (p < 0) {
+			if (r > t[1]) {
+				return false;
+			}
+			if (r > t[0]) {
+				t[0] = r;
+			}
+		} else {
+			if (r < t[0]) {
+				return false;
+			}
+			if (r < t[1]) {
+				t[1] = r;
+			}
+		}
+		return true;
+	}
+
+	private static ArrayList<Node> flush(ArrayList<Node> piece, ArrayList<Node[]> out) {
+		if (piece != null && piece.size() > 1) {
+			out.add(piece.toArray(new Node[piece.size()]));
+		}
+		return null;
+	}
+
+	/**
+	 * @return The triangles whose boxes overlap the view
+	 */
+	private Node[] cull(Node[] t) {
+		Node[] kept  = new Node[t.length];
+		int    count = 0;
+		for (int j = 0; j + 2 < t.length; j += 3) {
+			float minX = Math.min(t[j].getX(), Math.min(t[j + 1].getX(), t[j + 2].getX()));
+			float maxX = Math.max(t[j].getX(), Math.max(t[j + 1].getX(), t[j + 2].getX()));
+			float minY = Math.min(t[j].getY(), Math.min(t[j + 1].getY(), t[j + 2].getY()));
+			float maxY = Math.max(t[j].getY(), Math.max(t[j + 1].getY(), t[j + 2].getY()));
+			if (minX <= this.x2 && maxX >= this.x1 && minY <= this.y2 && maxY >= this.y1) {
+				kept[count++] = t[j];
+				kept[count++] = t[j + 1];
+				kept[count++] = t[j + 2];
+			}
+		}
+		Node[] result = new Node[count];
+		System.arraycopy(kept, 0, result, 0, count);
+		return result;
+	}
+}
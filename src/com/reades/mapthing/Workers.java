@@ -0,0 +1,137 @@
+/**
+ * ##library.name##
+ * ##library.sentence##
+ * ##library.url##
+ *
+ * Copyright ##copyright## ##author##
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ * Boston, MA  02111-1307  USA
+ *
+ * @author      ##author##
+ * @modified    ##date##
+ * @version     ##library.prettyVersion## (##library.version##)
+ */
+package com.reades.mapthing;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Splits a job over a range of rows (0 to size) into
+ * chunks and runs them on all of the available processors.
+ * The threads are shared by everything in the library and
+ * are daemons so they won't keep a sketch from exiting.
+ * Tasks mustn't call run() themselves since they would
+ * then be waiting on the same threads that they're using.</p>
+ */
+class Workers {
+
+	/**
+	 * The work to be done on one chunk of rows.
+	 */
+	interface Task {
+		void run(int from, int to);
+	}
+
+	// Below this many rows we don't bother with threads
+	static final int MIN_CHUNK = 1024;
+
+	private static ExecutorService pool;
+
+	static int getThreadCount() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+				private int count = 0;
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "MapThing worker " + (++count));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * Runs the task over 0 to size and waits for it
+	 * to finish. Any exception thrown by the task is
+	 * passed back to the caller.
+	 * @param size the number of rows
+	 * @param task the work to do on each chunk of rows
+	 */
+	static void run(int size, final Task task) {
+
+		int threads = getThreadCount();
+
+		if (threads == 1 || size < 2 * MIN_CHUNK) {
+			task.run(0, size);
+			return;
+		}
+
+		// A few chunks per thread so that the slow ones even out
+		run(size, Math.max(MIN_CHUNK, size / (threads * 4) + 1), task);
+	}
+
+	/**
+	 * Runs the task over 0 to size in chunks of a given
+	 * size and waits for it to finish. This is for when
+	 * each 'row' is already a big piece of work (e.g. one
+	 * shard of a hash table).
+	 * @param size  the number of rows
+	 * @param chunk the number of rows in each chunk
+	 * @param task  the work to do on each chunk of rows
+	 */
+	static void run(int size, int chunk, final Task task) {
+
+		if (getThreadCount() == 1 || size <= chunk) {
+			task.run(0, size);
+			return;
+		}
+
+		ArrayList<Future<?>> jobs = new ArrayList<Future<?>>();
+		for (int from = 0; from < size; from += chunk) {
+			final int f = from;
+			final int t = Math.min(size, from + chunk);
+			jobs.add(getPool().submit(new Runnable() {
+				public void run() {
+					task.run(f, t);
+				}
+			}));
+		}
+
+		try {
+			for (int i = 0; i < jobs.size(); i++) {
+				jobs.get(i).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for workers", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
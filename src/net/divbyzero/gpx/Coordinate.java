@@ -37,6 +37,14 @@ package net.divbyzero.gpx;
 public class Coordinate {
 	private double longitude = 0.0;
 	private double latitude = 0.0;
+	
+	/* The same in radians, and the cosine of the latitude, which 
+	 * are needed every time the distance to another point is 
+	 * calculated
+	 */
+	private double longitudeRadians = 0.0;
+	private double latitudeRadians = 0.0;
+	private double cosLatitude = 1.0;
 
 	/**
 	 * Returns the value for the longitude of the coordinate
@@ -54,6 +62,7 @@ public class Coordinate {
 	 */
 	public void setLongitude(double longitude) {
 		this.longitude = longitude;
+		this.longitudeRadians = Math.toRadians(longitude);
 	}
 	
 	/**
@@ -72,5 +81,47 @@ public class Coordinate {
 	 */
 	public void setLatitude(double latitude) {
 		this.latitude = latitude;
+		this.latitudeRadians = Math.toRadians(latitude);
+		this.cosLatitude = Math.cos(this.latitudeRadians);
+	}
+	
+	/**
+	 * Returns the longitude of the coordinate in radians
+	 * 
+	 * @return the longitude in radians
+	 */
+	public double getLongitudeRadians() {
+		return longitudeRadians;
+	}
+	
+	/**
+	 * Returns the latitude of the coordinate in radians
+	 * 
+	 * @return the latitude in radians
+	 */
+	public double getLatitudeRadians() {
+		return latitudeRadians;
+	}
+	
+	/**
+	 * Returns the cosine of the latitude of the coordinate
+	 * 
+	 * @return the cosine of the latitude
+	 */
+	public double getCosLatitude() {
+		return cosLatitude;
+	}
+	
+	/**
+	 * Calculates the distance between this coordinate and another one
+	 * 
+	 * @see Distance
+	 * @param other the other coordinate
+	 * @param method Distance.HAVERSINE or Distance.EQUIRECTANGULAR
+	 * @return the distance in meters
+	 */
+	public double distanceTo(Coordinate other, int method) {
+		return Distance.between(latitudeRadians, longitudeRadians, cosLatitude, 
+				other.latitudeRadians, other.longitudeRadians, other.cosLatitude, method);
 	}
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2009 Martin Jansen
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.divbyzero.gpx;
+
+/**
+ * Distances between points on the earth's surface
+ * 
+ * <p>Two methods are available. The haversine formula is accurate for
+ * any distance, including the very short hops between the way points of 
+ * a track (where the Spherical Law of Cosines loses most of its precision).
+ * The equirectangular (or 'flat earth') approximation treats each hop as 
+ * a straight line on a plane scaled by the cosine of the latitude, which 
+ * needs no trigonometry at all once the cosines are known and is very 
+ * close to the haversine distance for hops of a few kilometers.</p>
+ * 
+ * <p>The methods taking single points expect angles in radians along
+ * with the cosine of the latitude (way points keep these so that they 
+ * are only worked out once). The methods taking arrays expect degrees 
+ * and work out the radians and cosine of each point once as they go,
+ * so a whole segment can be measured without creating any objects.</p>
+ * 
+ * @see <a href="http://www.movable-type.co.uk/scripts/latlong.html">Implementation notes</a>
+ */
+public class Distance {
+	/**
+	 * The haversine formula
+	 */
+	public static final int HAVERSINE = 0;
+	
+	/**
+	 * The equirectangular (flat earth) approximation
+	 */
+	public static final int EQUIRECTANGULAR = 1;
+	
+	/**
+	 * The earth's equatorial radius in meters
+	 */
+	public static final double RADIUS = 6378137;
+	
+	/**
+	 * Calculates the distance between two points with the haversine formula
+	 * 
+	 * @param lat1 the latitude of the first point in radians
+	 * @param lon1 the longitude of the first point in radians
+	 * @param cosLat1 the cosine of the latitude of the first point
+	 * @param lat2 the latitude of the second point in radians
+	 * @param lon2 the longitude of the second point in radians
+	 * @param cosLat2 the cosine of the latitude of the second point
+	 * @return the distance in meters
+	 */
+	public static double haversine(double lat1, double lon1, double cosLat1, double lat2, double lon2, double cosLat2) {
+		double sinLat = Math.sin((lat2 - lat1) / 2);
+		double sinLon = Math.sin((lon2 - lon1) / 2);
+		double a = sinLat * sinLat + cosLat1 * cosLat2 * sinLon * sinLon;
+		
+		return 2 * RADIUS * Math.asin(Math.sqrt(Math.min(1.0, a)));
+	}
+	
+	/**
+	 * Calculates the distance between two points with the 
+	 * equirectangular approximation
+	 * 
+	 * @param lat1 the latitude of the first point in radians
+	 * @param lon1 the longitude of the first point in radians
+	 * @param cosLat1 the cosine of the latitude of the first point
+	 * @param lat2 the latitude of the second point in radians
+	 * @param lon2 the longitude of the second point in radians
+	 * @param cosLat2 the cosine of the latitude of the second point
+	 * @return the distance in meters
+	 */
+	public static double equirectangular(double lat1, double lon1, double cosLat1, double lat2, double lon2, double cosLat2) {
+		double dLon = lon2 - lon1;
+		
+		// Take the short way round if the hop crosses the date line
+		if (dLon > Math.PI) {
+			dLon -= 2 * Math.PI;
+		} else if (dLon < -Math.PI) {
+			dLon += 2 * Math.PI;
+		}
+		
+		double x = dLon * (cosLat1 + cosLat2) / 2;
+		double y = lat2 - lat1;
+		
+		return RADIUS * Math.sqrt(x * x + y * y);
+	}
+	
+	/**
+	 * Calculates the distance between two points with either method
+	 * 
+	 * @see Distance#HAVERSINE
+	 * @see Distance#EQUIRECTANGULAR
+	 * @return the distance in meters
+	 */
+	public static double between(double lat1, double lon1, double cosLat1, double lat2, double lon2, double cosLat2, int method) {
+		if (method == EQUIRECTANGULAR) {
+			return equirectangular(lat1, lon1, cosLat1, lat2, lon2, cosLat2);
+		}
+		return haversine(lat1, lon1, cosLat1, lat2, lon2, cosLat2);
+	}
+	
+	/**
+	 * Calculates the length of a line through a number of points
+	 * 
+	 * @param latitude the latitudes of the points in degrees
+	 * @param longitude the longitudes of the points in degrees
+	 * @param from the position of the first point
+	 * @param to the position after the last point
+	 * @param method HAVERSINE or EQUIRECTANGULAR
+	 * @return the length in meters
+	 */
+	public static double length(double[] latitude, double[] longitude, int from, int to, int method) {
+		double length = 0.0;
+		
+		if (to - from < 2) {
+			return length;
+		}
+		
+		double lat1 = Math.toRadians(latitude[from]);
+		double lon1 = Math.toRadians(longitude[from]);
+		double cos1 = Math.cos(lat1);
+		
+		for (int i = from + 1; i < to; i++) {
+			double lat2 = Math.toRadians(latitude[i]);
+			double lon2 = Math.toRadians(longitude[i]);
+			double cos2 = Math.cos(lat2);
+			
+			length += between(lat1, lon1, cos1, lat2, lon2, cos2, method);
+			
+			lat1 = lat2;
+			lon1 = lon2;
+			cos1 = cos2;
+		}
+		
+		return length;
+	}
+	
+	/**
+	 * Calculates the distance from each point to the one before it
+	 * 
+	 * <p>The distance for the first point is 0, so the distances
+	 * can be added up to find how far along the line each point is.</p>
+	 * 
+	 * @param latitude the latitudes of the points in degrees
+	 * @param longitude the longitudes of the points in degrees
+	 * @param from the position of the first point
+	 * @param to the position after the last point
+	 * @param method HAVERSINE or EQUIRECTANGULAR
+	 * @param distances where to put the distances (from position from onwards)
+	 */
+	public static void distances(double[] latitude, double[] longitude, int from, int to, int method, double[] distances) {
+		if (to <= from) {
+			return;
+		}
+		
+		double lat1 = Math.toRadians(latitude[from]);
+		double lon1 = Math.toRadians(longitude[from]);
+		double cos1 = Math.cos(lat1);
+		
+		distances[from] = 0.0;
+		
+		for (int i = from + 1; i < to; i++) {
+			double lat2 = Math.toRadians(latitude[i]);
+			double lon2 = Math.toRadians(longitude[i]);
+			double cos2 = Math.cos(lat2);
+			
+			distances[i] = between(lat1, lon1, cos1, lat2, lon2, cos2, method);
+			
+			lat1 = lat2;
+			lon1 = lon2;
+			cos1 = cos2;
+		}
+	}
+}
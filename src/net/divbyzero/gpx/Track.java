@@ -43,6 +43,17 @@ public class Track implements Measurable {
 
 	private ArrayList<TrackSegment> segments = new ArrayList<TrackSegment>();
 	
+	/* The totals over all of the segments, kept up to date as 
+	 * segments are added (or get longer)
+	 */
+	private double length = 0.0;
+	private double ascent = 0.0;
+	private double descent = 0.0;
+	private long startingTime = TrackSegment.NO_TIME;
+	private long endTime = TrackSegment.NO_TIME;
+	private Date startingDate = null;
+	private Date endDate = null;
+	
 	/**
 	 * Adds a new segment to the track.
 	 * 
@@ -53,6 +64,39 @@ public class Track implements Measurable {
 	 */
 	public void addSegment(TrackSegment segment) {
 		segments.add(segment);
+		segment.addTrack(this);
+		
+		length += segment.length();
+		ascent += segment.cumulativeAscent();
+		descent += segment.cumulativeDescent();
+		if (segment.startingTime() != null) {
+			updateTimes(segment.startingTime().getTime());
+			updateTimes(segment.endTime().getTime());
+		}
+	}
+	
+	/**
+	 * Called by a segment of this track when a way point 
+	 * is added to it.
+	 */
+	void segmentExtended(double addedLength, double addedAscent, double addedDescent, long time) {
+		length += addedLength;
+		ascent += addedAscent;
+		descent += addedDescent;
+		updateTimes(time);
+	}
+	
+	private void updateTimes(long time) {
+		if (time != TrackSegment.NO_TIME) {
+			if (startingTime == TrackSegment.NO_TIME || time < startingTime) {
+				startingTime = time;
+				startingDate = null;
+			}
+			if (endTime == TrackSegment.NO_TIME || time > endTime) {
+				endTime = time;
+				endDate = null;
+			}
+		}
 	}
 	
 	/**
@@ -62,7 +106,8 @@ public class Track implements Measurable {
 	 * track. They are returned in the order that they were added,
 	 * i.e. the segment at which the track start is at position 0
 	 * while the segment where the track ends is at the last position
-	 * of the list.</p>
+	 * of the list. Use addSegment to extend the track rather than 
+	 * adding to this list, otherwise the totals will be wrong.</p>
 	 * 
 	 * @return a list of the track's segments
 	 */
@@ -71,112 +116,70 @@ public class Track implements Measurable {
 	}
 
 	/**
-	 * Calculates the length of the track
+	 * Returns the length of the track
 	 * 
 	 * @return the tracks's length in meters
 	 */
 	public double length()
 	{
-		double length = 0.0;
-
-		for (int i = 0; i < segments.size(); i++) {			
-			length += segments.get(i).length();
-		}
-		
 		return length;
 	}
 
 	/**
-	 * Calculates the total ascent in the track.
+	 * Returns the total ascent in the track.
 	 * 
-	 * <p>The total ascent of the track is calculated by comparing each
-	 * of the track's segments  with their predecessors. If the
-	 * elevation of a segments is higher than the elevation of the
-	 * predecessor, the total ascent is increased accordingly.</p>
+	 * <p>The total ascent of the track is the sum of the ascents
+	 * of its segments.</p>
 	 * 
 	 * @see Track#cumulativeDescent()
 	 * @return the tracks's total ascent in meters
 	 */
 	public double cumulativeAscent() {
-		double ascent = 0.0;
-		
-		for (int i = 0; i < segments.size(); i++) {
-			ascent += segments.get(i).cumulativeAscent();
-		}
-		
 		return ascent;
 	}
 
 	/**
-	 * Calculates the total descent in the track.
+	 * Returns the total descent in the track.
 	 * 
-	 * <p>The total descent of the track is calculated by comparing each
-	 * of the track's segments with their predecessors. If the
-	 * elevation of a segment is lower than the elevation of the
-	 * predecessor, the total descent is increased accordingly.</p>
+	 * <p>The total descent of the track is the sum of the descents
+	 * of its segments.</p>
 	 * 
 	 * @see Track#cumulativeAscent()
 	 * @return the tracks's total descent in meters
 	 */
 	public double cumulativeDescent() {
-		double descent = 0.0;
-		
-		for (int i = 0; i < segments.size(); i++) {
-			descent += segments.get(i).cumulativeDescent();
-		}
-		
 		return descent;
 	}
 
 	/**
 	 * Returns the point in time when the track was entered
 	 * 
-	 * <p>Usually this is the time stamp of the segment that was added
-	 * first to the track.</p>
+	 * <p>This is the earliest starting time of the track's segments,
+	 * which is usually that of the segment that was added first.</p>
 	 * 
 	 * @see Track#endTime()
 	 * @return the point in time when the track was entered 
 	 */
 	public Date startingTime() {
-		Date result = null;
-		
-		for (int i = 0; i < segments.size(); i++) {
-			TrackSegment segment = segments.get(i);
-			Date startingTime = segment.startingTime();
-			
-			if (startingTime != null) {
-				if (result == null || startingTime.before(result)) {
-					result = startingTime;
-				}
-			}
+		if (startingDate == null && startingTime != TrackSegment.NO_TIME) {
+			startingDate = new Date(startingTime);
 		}
-		
-		return result;
+		return startingDate;
 	}
 
 	/**
 	 * Returns the point in time when the track was left
 	 * 
-	 * <p>Usually this is the time stamp of the segment that was added
-	 * last to the track.</p>
+	 * <p>This is the latest end time of the track's segments,
+	 * which is usually that of the segment that was added last.</p>
 	 * 
 	 * @see Track#startingTime
 	 * @return the point in time when the track was left
 	 */
 	public Date endTime() {
-		Date result = null;
-		
-		for (int i = 0; i < segments.size(); i++) {
-			TrackSegment segment = segments.get(i);
-			Date endTime = segment.endTime();
-			
-			if (endTime != null) {
-				if (result == null || endTime.after(result)) {
-					result = endTime;
-				}
-			}
+		if (endDate == null && endTime != TrackSegment.NO_TIME) {
+			endDate = new Date(endTime);
 		}
-		
-		return result;
+		return endDate;
 	}
 }
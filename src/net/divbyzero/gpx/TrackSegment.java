@@ -27,6 +27,7 @@
 package net.divbyzero.gpx;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -36,22 +37,233 @@ import java.util.Date;
  * have a length, can be queried for elevations and for the points in time 
  * when the segment was entered and left during a track recording.</p>
  * 
+ * <p>The way points are not kept as objects: their latitudes, longitudes,
+ * elevations and times are held in one array each, which takes about 32
+ * bytes per point instead of the 150 or so needed for a Waypoint with its
+ * Coordinate and Date. The SAX parser fills these arrays directly with 
+ * addPoint as it reads the file, so a segment never needs more memory 
+ * than its arrays, and getWaypoints builds Waypoint objects for code 
+ * that still wants them. (The JDOM parser does the same, but only once 
+ * it has read the whole file into a document.)</p>
+ * 
  * @author Martin Jansen <martin@divbyzero.net>
  * @since 0.1
  */
 public class TrackSegment implements Measurable {
-	private ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
+	/**
+	 * The time of a way point that hasn't got one
+	 */
+	public static final long NO_TIME = Long.MIN_VALUE;
+	
+	private double[] latitudes = new double[16];
+	private double[] longitudes = new double[16];
+	private double[] elevations = new double[16];
+	private long[] times = new long[16];
+	private int size = 0;
+	
+	/* Names are rare, so this is only created if a named way 
+	 * point is added
+	 */
+	private String[] names = null;
+	
+	/* The totals are kept up to date as way points are added so
+	 * that asking for them doesn't mean going through the whole
+	 * segment again.
+	 */
+	private double length = 0.0;
+	private double ascent = 0.0;
+	private double descent = 0.0;
+	private long startingTime = NO_TIME;
+	private long endTime = NO_TIME;
+	private Date startingDate = null;
+	private Date endDate = null;
+	
+	// The last point in radians, ready for measuring the next hop
+	private double lastLatitude;
+	private double lastLongitude;
+	private double lastCosLatitude;
+	
+	/* The tracks that this segment has been added to, which
+	 * are told whenever the segment gets longer
+	 */
+	private ArrayList<Track> tracks = null;
 	
 	/**
 	 * Adds a new way point to the segment.
 	 * 
 	 * <p>This method is used for extending a track segment by another
-	 * way point. The way point is added at the segment's end.</p>
+	 * way point. The way point is added at the segment's end. Only its 
+	 * coordinate, elevation, time and name are kept (not the object 
+	 * itself), so changing the way point afterwards has no effect on 
+	 * the segment.</p>
 	 * 
 	 * @param waypoint the way point to be added to the segment
 	 */
 	public void addWaypoint(Waypoint waypoint) {
-		waypoints.add(waypoint);
+		Coordinate coordinate = waypoint.getCoordinate();
+		Date time = waypoint.getTime();
+		String name = waypoint.getName();
+		
+		addPoint(
+				coordinate == null ? Double.NaN : coordinate.getLatitude(), 
+				coordinate == null ? Double.NaN : coordinate.getLongitude(), 
+				waypoint.getElevation(), 
+				time == null ? NO_TIME : time.getTime());
+		
+		if (name != null && name.length() > 0) {
+			if (names == null) {
+				names = new String[latitudes.length];
+			}
+			names[size - 1] = name;
+		}
+	}
+	
+	/**
+	 * Adds a new point to the end of the segment without creating
+	 * a way point for it.
+	 * 
+	 * @param latitude the latitude of the point
+	 * @param longitude the longitude of the point
+	 * @param elevation the elevation of the point in meters
+	 * @param time the time of the point in milliseconds since 1970 (UTC), or NO_TIME
+	 */
+	public void addPoint(double latitude, double longitude, double elevation, long time) {
+		double addedLength = 0.0;
+		double addedAscent = 0.0;
+		double addedDescent = 0.0;
+		
+		double latitudeRadians = Math.toRadians(latitude);
+		double longitudeRadians = Math.toRadians(longitude);
+		double cosLatitude = Math.cos(latitudeRadians);
+		
+		if (size > 0) {
+			int previous = size - 1;
+			double climb = elevation - elevations[previous];
+			
+			if (! Double.isNaN(latitude) && ! Double.isNaN(latitudes[previous])) {
+				addedLength = Distance.haversine(lastLatitude, lastLongitude, lastCosLatitude, 
+						latitudeRadians, longitudeRadians, cosLatitude);
+			}
+			if (climb > 0) {
+				addedAscent = climb;
+			} else if (climb < 0) {
+				addedDescent = -climb;
+			}
+		}
+		
+		if (size == latitudes.length) {
+			grow(size + (size >> 1) + 1);
+		}
+		latitudes[size] = latitude;
+		longitudes[size] = longitude;
+		elevations[size] = elevation;
+		times[size] = time;
+		size++;
+		
+		lastLatitude = latitudeRadians;
+		lastLongitude = longitudeRadians;
+		lastCosLatitude = cosLatitude;
+		
+		length += addedLength;
+		ascent += addedAscent;
+		descent += addedDescent;
+		
+		if (time != NO_TIME) {
+			if (startingTime == NO_TIME || time < startingTime) {
+				startingTime = time;
+				startingDate = null;
+			}
+			if (endTime == NO_TIME || time > endTime) {
+				endTime = time;
+				endDate = null;
+			}
+		}
+		
+		for (int i = 0; tracks != null && i < tracks.size(); i++) {
+			tracks.get(i).segmentExtended(addedLength, addedAscent, addedDescent, time);
+		}
+	}
+	
+	private void grow(int capacity) {
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+		elevations = Arrays.copyOf(elevations, capacity);
+		times = Arrays.copyOf(times, capacity);
+		if (names != null) {
+			names = Arrays.copyOf(names, capacity);
+		}
+	}
+	
+	/**
+	 * Frees the space left over at the end of the arrays once
+	 * the segment is complete.
+	 */
+	public void trimToSize() {
+		if (size < latitudes.length) {
+			grow(size);
+		}
+	}
+	
+	/**
+	 * Remembers that the segment is part of a track so that
+	 * the track's totals can be kept up to date.
+	 * 
+	 * @param track the track that the segment has been added to
+	 */
+	void addTrack(Track track) {
+		if (tracks == null) {
+			tracks = new ArrayList<Track>(1);
+		}
+		tracks.add(track);
+	}
+	
+	/**
+	 * Returns the number of way points in the segment.
+	 * 
+	 * @return the number of way points
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the latitude of a way point (NaN if it hasn't got a coordinate).
+	 * 
+	 * @param i the position of the way point
+	 * @return the latitude
+	 */
+	public double getLatitude(int i) {
+		return latitudes[i];
+	}
+	
+	/**
+	 * Returns the longitude of a way point (NaN if it hasn't got a coordinate).
+	 * 
+	 * @param i the position of the way point
+	 * @return the longitude
+	 */
+	public double getLongitude(int i) {
+		return longitudes[i];
+	}
+	
+	/**
+	 * Returns the elevation of a way point.
+	 * 
+	 * @param i the position of the way point
+	 * @return the elevation in meters
+	 */
+	public double getElevation(int i) {
+		return elevations[i];
+	}
+	
+	/**
+	 * Returns the time of a way point.
+	 * 
+	 * @param i the position of the way point
+	 * @return the time in milliseconds since 1970 (UTC), or NO_TIME
+	 */
+	public long getTime(int i) {
+		return times[i];
 	}
 
 	/**
@@ -63,33 +275,68 @@ public class TrackSegment implements Measurable {
 	 * while the way point where the segment ends is at the last position
 	 * of the list.</p>
 	 * 
+	 * <p>The way points are created from the segment's arrays each time
+	 * this is called, so for big segments it is better to use size() and
+	 * the getters for each way point instead. Changing the list or the 
+	 * way points in it has no effect on the segment.</p>
+	 * 
 	 * @return a list of the segment's way points
 	 */
 	public ArrayList<Waypoint> getWaypoints()
 	{
+		ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>(size);
+		
+		for (int i = 0; i < size; i++) {
+			Waypoint waypoint = new Waypoint();
+			
+			if (! Double.isNaN(latitudes[i])) {
+				Coordinate coordinate = new Coordinate();
+				coordinate.setLatitude(latitudes[i]);
+				coordinate.setLongitude(longitudes[i]);
+				waypoint.setCoordinate(coordinate);
+			}
+			waypoint.setElevation(elevations[i]);
+			if (times[i] != NO_TIME) {
+				waypoint.setTime(new Date(times[i]));
+			}
+			if (names != null && names[i] != null) {
+				waypoint.setName(names[i]);
+			}
+			
+			waypoints.add(waypoint);
+		}
+		
 		return waypoints;
 	}
 
 	/**
-	 * Calculates the length of the track segment
+	 * Returns the length of the track segment
 	 * 
 	 * @return the segment's length in meters
 	 */
 	public double length() {
+		return length;
+	}
+
+	/**
+	 * Calculates the length of the track segment with a particular
+	 * method, going through all of the way points again.
+	 * 
+	 * @see Distance
+	 * @param method Distance.HAVERSINE or Distance.EQUIRECTANGULAR
+	 * @return the segment's length in meters
+	 */
+	public double length(int method) {
 		double length = 0.0;
-	
-		Waypoint currentWaypoint = null;
-		Waypoint previousWaypoint = null;
-	
-		for (int z = 0; z < waypoints.size(); z++) {
-			/* Only attempt to calculate the distance if we are not
-			 * on the first way point of the segment.
-			 */
-			if (z > 0) {
-				currentWaypoint = waypoints.get(z);
-				previousWaypoint = waypoints.get(z - 1);
-				
-				length += currentWaypoint.calculateDistanceTo(previousWaypoint);
+		int from = 0;
+		
+		/* Way points without a coordinate split the segment
+		 * into pieces that are measured separately
+		 */
+		for (int i = 0; i <= size; i++) {
+			if (i == size || Double.isNaN(latitudes[i])) {
+				length += Distance.length(latitudes, longitudes, from, i, method);
+				from = i + 1;
 			}
 		}
 		
@@ -97,7 +344,7 @@ public class TrackSegment implements Measurable {
 	}
 
 	/**
-	 * Calculates the total ascent in the segment.
+	 * Returns the total ascent in the segment.
 	 * 
 	 * <p>The total ascent of the segment is calculated by comparing each
 	 * of the segment's way point with their predecessors. If the
@@ -109,23 +356,11 @@ public class TrackSegment implements Measurable {
 	 */
 	public double cumulativeAscent()
 	{
-		double ascent = 0.0;
-	
-		if (waypoints.size() <= 1) {
-			return 0.0;
-		}
-		
-		for (int i = 0; i < waypoints.size(); i++) {
-			if (i > 0 && waypoints.get(i - 1).getElevation() < waypoints.get(i).getElevation()) {
-				ascent += waypoints.get(i).getElevation() - waypoints.get(i - 1).getElevation();
-			}
-		}
-	
 		return ascent;
 	}
 
 	/**
-	 * Calculates the total descent in the segment.
+	 * Returns the total descent in the segment.
 	 * 
 	 * <p>The total descent of the segment is calculated by comparing each
 	 * of the segment's way point with their predecessors. If the
@@ -138,68 +373,38 @@ public class TrackSegment implements Measurable {
 	 */
 	public double cumulativeDescent()
 	{
-		double descent = 0.0;
-		
-		if (waypoints.size() <= 1) {
-			return 0.0;
-		}
-
-		for (int i = 0; i < waypoints.size(); i++) {
-			if (i > 1 && waypoints.get(i).getElevation() < waypoints.get(i - 1).getElevation()) {
-				descent += waypoints.get(i - 1).getElevation() - waypoints.get(i).getElevation();
-			}
-		}
-
 		return descent;
 	}
 	
 	/**
 	 * Returns the point in time when the segment was entered
 	 * 
-	 * <p>Usually this is the time stamp of the way point that was added
-	 * first to the segment.</p>
+	 * <p>This is the earliest time stamp of the segment's way points, 
+	 * which is usually that of the way point that was added first.</p>
 	 * 
 	 * @see TrackSegment#endTime
 	 * @return the point in time when the segment was entered 
 	 */
 	public Date startingTime() {
-		Date result = null;
-		
-		for (int i = 0; i < waypoints.size(); i++) {
-			Date time = waypoints.get(i).getTime();
-			
-			if (time != null) {
-				if (result == null || time.before(result)) {
-					result = time;
-				}
-			}
+		if (startingDate == null && startingTime != NO_TIME) {
+			startingDate = new Date(startingTime);
 		}
-		
-		return result;
+		return startingDate;
 	}
 
 	/**
 	 * Returns the point in time when the segment was left
 	 * 
-	 * <p>Usually this is the time stamp of the way point that was added
-	 * last to the segment.</p>
+	 * <p>This is the latest time stamp of the segment's way points, 
+	 * which is usually that of the way point that was added last.</p>
 	 *
-	 * @see TrackSegment#endTime
+	 * @see TrackSegment#startingTime
 	 * @return the point in time when the segment was left
 	 */
 	public Date endTime() {
-		Date result = null;
-		
-		for (int i = 0; i < waypoints.size(); i++) {
-			Date time = waypoints.get(i).getTime();
-			
-			if (time != null) {
-				if (result == null || time.after(result)) {
-					result = time;
-				}
-			}
+		if (endDate == null && endTime != NO_TIME) {
+			endDate = new Date(endTime);
 		}
-		
-		return result;
+		return endDate;
 	}
 }
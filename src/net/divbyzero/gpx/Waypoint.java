@@ -130,26 +130,35 @@ public class Waypoint {
 	/**
 	 * Calculates the distance between this way point and another one
 	 * 
-	 * <p>In order to calculate the distance, the Spherical Law of Cosines
-	 * is used. An equatorial radius of 6,378.137 kilometers is assumed.</p> 
+	 * <p>In order to calculate the distance, the haversine formula
+	 * is used, which (unlike the Spherical Law of Cosines) stays accurate
+	 * for way points that are close together. An equatorial radius of 
+	 * 6,378.137 kilometers is assumed.</p> 
 	 * 
-	 * @see <a href="http://en.wikipedia.org/wiki/Spherical_law_of_cosines">Wikipedia on the Spherical Law Of Cosines</a>
+	 * @see Distance#haversine
 	 * @see <a href="http://www.movable-type.co.uk/scripts/latlong.html">Implementation notes</a>
 	 * @param otherPoint The other way point
 	 * @return the distance in meters
 	 */
 	public double calculateDistanceTo(Waypoint otherPoint) {
-		// According to http://en.wikipedia.org/wiki/Earth_radius#Mean_radii
-		// earth has an equatorial radius of 6,378.137 kilometers. 
-		final int R = 6378137;
-
+		return calculateDistanceTo(otherPoint, Distance.HAVERSINE);
+	}
+	
+	/**
+	 * Calculates the distance between this way point and another one
+	 * using either the haversine formula or the (faster) equirectangular
+	 * approximation.
+	 * 
+	 * @see Distance
+	 * @param otherPoint The other way point
+	 * @param method Distance.HAVERSINE or Distance.EQUIRECTANGULAR
+	 * @return the distance in meters
+	 */
+	public double calculateDistanceTo(Waypoint otherPoint, int method) {
 		if (otherPoint.getCoordinate() == null || getCoordinate() == null) {
 			return 0.0;
 		}
 		
-		return Math.acos(
-				Math.sin(Math.toRadians(getCoordinate().getLatitude())) * Math.sin(Math.toRadians(otherPoint.getCoordinate().getLatitude())) + 
-                Math.cos(Math.toRadians(getCoordinate().getLatitude())) * Math.cos(Math.toRadians(otherPoint.getCoordinate().getLatitude())) *
-                Math.cos(Math.toRadians(otherPoint.getCoordinate().getLongitude() - getCoordinate().getLongitude()))) * R;
+		return getCoordinate().distanceTo(otherPoint.getCoordinate(), method);
 	}
 }
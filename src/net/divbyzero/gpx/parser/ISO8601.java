@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2009 Martin Jansen
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.divbyzero.gpx.parser;
+
+import net.divbyzero.gpx.TrackSegment;
+
+/**
+ * Parser for the ISO 8601 time stamps used in GPX files
+ * 
+ * <p>GPX time stamps look like <code>2009-10-17T18:37:26Z</code>, but 
+ * they may also have fractions of a second 
+ * (<code>2009-10-17T18:37:26.123Z</code>) or an offset from UTC instead
+ * of the Z (<code>2009-10-17T20:37:26+02:00</code>, <code>+0200</code> 
+ * or <code>+02</code>). A time stamp without either is taken to be UTC, 
+ * as is a date on its own.</p>
+ * 
+ * <p>The fields are read straight from the characters and the date is 
+ * turned into a number of days with a little arithmetic, so parsing 
+ * creates no objects at all (unlike a SimpleDateFormat, which also 
+ * isn't safe to share between threads).</p>
+ */
+public class ISO8601 {
+	
+	/**
+	 * Parses a time stamp
+	 * 
+	 * @param s the time stamp
+	 * @return the time in milliseconds since 1970 (UTC), or 
+	 * TrackSegment.NO_TIME if it isn't a valid time stamp
+	 */
+	public static long parse(CharSequence s) {
+		if (s == null) {
+			return TrackSegment.NO_TIME;
+		}
+		
+		int end = s.length();
+		int i = 0;
+		
+		// Ignore any white space around the time stamp
+		while (i < end && s.charAt(i) <= ' ') {
+			i++;
+		}
+		while (end > i && s.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		
+		boolean negative = false;
+		if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+			negative = s.charAt(i) == '-';
+			i++;
+		}
+		
+		// The year has at least four digits
+		int start = i;
+		long year = 0;
+		while (i < end && isDigit(s.charAt(i))) {
+			year = year * 10 + (s.charAt(i) - '0');
+			i++;
+			if (i - start > 9) {
+				return TrackSegment.NO_TIME;
+			}
+		}
+		if (i - start < 4 || ! is(s, i, end, '-')) {
+			return TrackSegment.NO_TIME;
+		}
+		if (negative) {
+			year = -year;
+		}
+		
+		int month = digits(s, i + 1, end);
+		int day = digits(s, i + 4, end);
+		if (month < 1 || month > 12 || ! is(s, i + 3, end, '-') || day < 1 || day > daysInMonth(year, month)) {
+			return TrackSegment.NO_TIME;
+		}
+		i += 6;
+		
+		long millis = daysSinceEpoch(year, month, day) * 86400000L;
+		
+		if (i == end) {
+			return millis;
+		}
+		if (s.charAt(i) != 'T' && s.charAt(i) != 't' && s.charAt(i) != ' ') {
+			return TrackSegment.NO_TIME;
+		}
+		
+		int hour = digits(s, i + 1, end);
+		int minute = digits(s, i + 4, end);
+		if (hour < 0 || hour > 24 || ! is(s, i + 3, end, ':') || minute < 0 || minute > 59) {
+			return TrackSegment.NO_TIME;
+		}
+		i += 6;
+		
+		int second = 0;
+		int fraction = 0;
+		if (is(s, i, end, ':')) {
+			second = digits(s, i + 1, end);
+			// 60 is a leap second
+			if (second < 0 || second > 60) {
+				return TrackSegment.NO_TIME;
+			}
+			i += 3;
+			
+			if (is(s, i, end, '.') || is(s, i, end, ',')) {
+				i++;
+				start = i;
+				int scale = 100;
+				while (i < end && isDigit(s.charAt(i))) {
+					fraction += (s.charAt(i) - '0') * scale;
+					scale /= 10;
+					i++;
+				}
+				if (i == start) {
+					return TrackSegment.NO_TIME;
+				}
+			}
+		}
+		if (hour == 24 && (minute > 0 || second > 0 || fraction > 0)) {
+			return TrackSegment.NO_TIME;
+		}
+		
+		millis += ((hour * 60L + minute) * 60L + second) * 1000L + fraction;
+		
+		// The time zone
+		if (i == end) {
+			return millis;
+		}
+		char c = s.charAt(i);
+		if ((c == 'Z' || c == 'z') && i + 1 == end) {
+			return millis;
+		}
+		if (c != '+' && c != '-') {
+			return TrackSegment.NO_TIME;
+		}
+		
+		int offsetHours = digits(s, i + 1, end);
+		int offsetMinutes = 0;
+		if (offsetHours < 0 || offsetHours > 23) {
+			return TrackSegment.NO_TIME;
+		}
+		if (i + 3 < end) {
+			int j = is(s, i + 3, end, ':') ? i + 4 : i + 3;
+			offsetMinutes = digits(s, j, end);
+			if (offsetMinutes < 0 || offsetMinutes > 59 || j + 2 != end) {
+				return TrackSegment.NO_TIME;
+			}
+		} else if (i + 3 != end) {
+			return TrackSegment.NO_TIME;
+		}
+		
+		long offset = (offsetHours * 60L + offsetMinutes) * 60000L;
+		
+		return (c == '+') ? millis - offset : millis + offset;
+	}
+	
+	/**
+	 * @return The two-digit number at i, or -1 if there isn't one
+	 */
+	private static int digits(CharSequence s, int i, int end) {
+		if (i + 2 > end || ! isDigit(s.charAt(i)) || ! isDigit(s.charAt(i + 1))) {
+			return -1;
+		}
+		return (s.charAt(i) - '0') * 10 + (s.charAt(i + 1) - '0');
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	private static boolean is(CharSequence s, int i, int end, char c) {
+		return i < end && s.charAt(i) == c;
+	}
+	
+	private static int daysInMonth(long year, int month) {
+		switch (month) {
+			case 2:
+				boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+				return leap ? 29 : 28;
+			case 4:
+			case 6:
+			case 9:
+			case 11:
+				return 30;
+			default:
+				return 31;
+		}
+	}
+	
+	/**
+	 * Counts the days from 1970-01-01 to a date in the (proleptic)
+	 * Gregorian calendar, treating the year as starting in March so 
+	 * that the leap day comes at the end.
+	 * 
+	 * @see <a href="http://howardhinnant.github.io/date_algorithms.html">Date algorithms</a>
+	 */
+	private static long daysSinceEpoch(long year, int month, int day) {
+		long y = (month <= 2) ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		
+		return era * 146097 + dayOfEra - 719468;
+	}
+}
@@ -29,16 +29,11 @@ package net.divbyzero.gpx.parser;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 
-import net.divbyzero.gpx.Coordinate;
 import net.divbyzero.gpx.GPX;
 import net.divbyzero.gpx.Track;
 import net.divbyzero.gpx.TrackSegment;
-import net.divbyzero.gpx.Waypoint;
 
 import org.jdom.DataConversionException;
 import org.jdom.Document;
@@ -50,9 +45,14 @@ import org.jdom.input.SAXBuilder;
 /**
  * GPX parser based on the JDOM XML parsing toolkit
  * 
+ * <p>This builds the whole document in memory before reading any way
+ * points from it, which takes several times the size of the file. The
+ * SAX parser gives the same result without doing that.</p>
+ * 
  * @author Martin Jansen <martin@divbyzero.net>
  * @since 0.1
  * @see <a href="http://jdom.org/">JDOM</a>
+ * @see SAX
  */
 public class JDOM implements Parser {
 	private Namespace ns;
@@ -143,27 +143,17 @@ public class JDOM implements Parser {
 				elevation = new Double(pointXML.getChildText("ele", ns));
 			}
 			
-			Waypoint waypoint = new Waypoint();
-			
-			Coordinate coordinate = new Coordinate();
-			coordinate.setLatitude(latitude);
-			coordinate.setLongitude(longitude);
-			
-			waypoint.setCoordinate(coordinate);
-			waypoint.setElevation(elevation);
+			long time = TrackSegment.NO_TIME;
 
 			if (pointXML.getChild("time", ns) != null) {
-				try {
-					SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-					Date time = dateFormat.parse(pointXML.getChildText("time", ns));
-					waypoint.setTime(time);				
-				} catch (ParseException e) {
-				}				
+				time = ISO8601.parse(pointXML.getChildText("time", ns));
 			}
 
-			segment.addWaypoint(waypoint);
+			segment.addPoint(latitude, longitude, elevation, time);
 		}
 		
+		segment.trimToSize();
+		
 		return segment;
 	}
 	
@@ -189,27 +179,17 @@ public class JDOM implements Parser {
 				elevation = new Double(pointXML.getChildText("ele", ns));
 			}
 			
-			Waypoint waypoint = new Waypoint();
-			
-			Coordinate coordinate = new Coordinate();
-			coordinate.setLatitude(latitude);
-			coordinate.setLongitude(longitude);
-			
-			waypoint.setCoordinate(coordinate);
-			waypoint.setElevation(elevation);
+			long time = TrackSegment.NO_TIME;
 
 			if (pointXML.getChild("time", ns) != null) {
-				try {
-					SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-					Date time = dateFormat.parse(pointXML.getChildText("time", ns));
-					waypoint.setTime(time);				
-				} catch (ParseException e) {
-				}				
+				time = ISO8601.parse(pointXML.getChildText("time", ns));
 			}
 
-			segment.addWaypoint(waypoint);
+			segment.addPoint(latitude, longitude, elevation, time);
 		}
 		
+		segment.trimToSize();
+		
 		return segment;
 	}
 }
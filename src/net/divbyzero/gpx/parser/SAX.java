@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2009 Martin Jansen
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.divbyzero.gpx.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.divbyzero.gpx.GPX;
+import net.divbyzero.gpx.Track;
+import net.divbyzero.gpx.TrackSegment;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * GPX parser based on the SAX parser that comes with Java
+ * 
+ * <p>Unlike the JDOM parser this never holds the document in memory:
+ * each way point is added to its TrackSegment as soon as its closing 
+ * tag has been read, so the memory needed for a big file is little 
+ * more than the segments' own arrays. It reads the same elements as 
+ * the JDOM parser (tracks first, then routes, in the namespace of 
+ * the root element) and gives the same result.</p>
+ * 
+ * @see <a href="http://www.saxproject.org/">SAX</a>
+ */
+public class SAX implements Parser {
+	private SAXParserFactory factory = SAXParserFactory.newInstance();
+	
+	public SAX() {
+		factory.setNamespaceAware(true);
+	}
+	
+	public GPX parse(File file) throws ParsingException {
+		Handler handler = new Handler();
+		try {
+			newParser().parse(file, handler);
+		} catch (IOException e) {
+			throw new ParsingException("Unable to open input", e);
+		} catch (SAXException e) {
+			throw new ParsingException("Unable to parse input", e);
+		}
+		return handler.finish();
+	}
+	
+	public GPX parse(URL url) throws ParsingException {
+		Handler handler = new Handler();
+		try {
+			newParser().parse(url.toExternalForm(), handler);
+		} catch (IOException e) {
+			throw new ParsingException("Unable to open input", e);
+		} catch (SAXException e) {
+			throw new ParsingException("Unable to parse input", e);
+		}
+		return handler.finish();
+	}
+	
+	private SAXParser newParser() throws ParsingException {
+		try {
+			return factory.newSAXParser();
+		} catch (ParserConfigurationException e) {
+			throw new ParsingException("Unable to create parser", e);
+		} catch (SAXException e) {
+			throw new ParsingException("Unable to create parser", e);
+		}
+	}
+	
+	/**
+	 * Follows where we are in the document and adds each way point
+	 * to the current segment as it ends. Only the elements that the
+	 * JDOM parser looks at count: trk/trkseg/trkpt and rte/rtept
+	 * just below the root, and the first ele and time directly 
+	 * inside each point.
+	 */
+	private static class Handler extends DefaultHandler {
+		private GPX gpx = new GPX();
+		private ArrayList<Track> routes = new ArrayList<Track>();
+		
+		private String ns = null;
+		private int depth = 0;
+		
+		private Track track = null;
+		private boolean route = false;
+		private TrackSegment segment = null;
+		
+		// The point being read, and where it is
+		private boolean inPoint = false;
+		private int pointDepth = 0;
+		private boolean validPoint = false;
+		private double latitude = 0.0;
+		private double longitude = 0.0;
+		private String elevation = null;
+		private String time = null;
+		
+		// The ele or time element being read, if any
+		private String field = null;
+		private StringBuilder text = new StringBuilder();
+		
+		public void startElement(String uri, String localName, String qName, Attributes attributes) {
+			depth++;
+			
+			if (depth == 1) {
+				ns = uri;
+				return;
+			}
+			if (! ns.equals(uri)) {
+				return;
+			}
+			
+			if (depth == 2 && localName.equals("trk")) {
+				track = new Track();
+				route = false;
+			} else if (depth == 2 && localName.equals("rte")) {
+				track = new Track();
+				route = true;
+				segment = new TrackSegment();
+			} else if (depth == 3 && track != null && ! route && localName.equals("trkseg")) {
+				segment = new TrackSegment();
+			} else if (segment != null && ! inPoint && (route ? 
+					(depth == 3 && localName.equals("rtept")) : (depth == 4 && localName.equals("trkpt")))) {
+				startPoint(attributes);
+			} else if (inPoint && depth == pointDepth + 1 && 
+					((localName.equals("ele") && elevation == null) || (localName.equals("time") && time == null))) {
+				field = localName;
+				text.setLength(0);
+			}
+		}
+		
+		public void characters(char[] ch, int start, int length) {
+			if (field != null && depth == pointDepth + 1) {
+				text.append(ch, start, length);
+			}
+		}
+		
+		public void endElement(String uri, String localName, String qName) {
+			if (field != null && depth == pointDepth + 1) {
+				if (field.equals("ele")) {
+					elevation = text.toString();
+				} else {
+					time = text.toString();
+				}
+				field = null;
+			} else if (inPoint && depth == pointDepth) {
+				endPoint();
+			} else if (depth == 3 && segment != null && ! route && localName.equals("trkseg") && ns.equals(uri)) {
+				segment.trimToSize();
+				track.addSegment(segment);
+				segment = null;
+			} else if (depth == 2 && track != null) {
+				if (route) {
+					segment.trimToSize();
+					track.addSegment(segment);
+					segment = null;
+					routes.add(track);
+				} else {
+					gpx.addTrack(track);
+				}
+				track = null;
+			}
+			depth--;
+		}
+		
+		private void startPoint(Attributes attributes) {
+			inPoint = true;
+			pointDepth = depth;
+			elevation = null;
+			time = null;
+			try {
+				latitude = parseDouble(attributes.getValue("lat"));
+				longitude = parseDouble(attributes.getValue("lon"));
+				validPoint = true;
+			} catch (NumberFormatException e) {
+				validPoint = false;
+			}
+		}
+		
+		private void endPoint() {
+			inPoint = false;
+			if (! validPoint) {
+				return;
+			}
+			
+			double ele = 0.0;
+			if (elevation != null) {
+				ele = new Double(elevation);
+			}
+			
+			segment.addPoint(latitude, longitude, ele, ISO8601.parse(time));
+		}
+		
+		/**
+		 * Reads an attribute the way JDOM's getDoubleValue does
+		 */
+		private static double parseDouble(String value) {
+			if (value == null) {
+				throw new NumberFormatException("missing");
+			}
+			String v = value.trim();
+			if (v.equals("INF")) {
+				return Double.POSITIVE_INFINITY;
+			}
+			if (v.equals("-INF")) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			return Double.parseDouble(v);
+		}
+		
+		/**
+		 * Adds the routes after the tracks, as the JDOM parser does
+		 */
+		GPX finish() {
+			for (int i = 0; i < routes.size(); i++) {
+				System.out.println("Processing route " + i + " of " + routes.size());
+				gpx.addTrack(routes.get(i));
+			}
+			return gpx;
+		}
+	}
+}